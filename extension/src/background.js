@@ -15,7 +15,7 @@ chrome.runtime.onInstalled.addListener(() => {
 chrome.runtime.onMessage.addListener((request, sender, sendResponse) => {
   if (request.action === 'fetchReputation') {
     const url = request.url || '';
-    fetch(`${API_BASE}/sources?url=${encodeURIComponent(url)}`)
+    fetch(`${API_BASE}/sources/summary?url=${encodeURIComponent(url)}`)
       .then(async (response) => {
         const data = await response.json().catch(() => null);
         sendResponse({ ok: response.ok, status: response.status, data });
@@ -52,6 +52,73 @@ chrome.runtime.onMessage.addListener((request, sender, sendResponse) => {
   }
 });
 
+// Live reputation for a content script: it connects a 'reputationEvents' port and subscribes to one source,
+// and every reputation frame from GET /sources/{id}/events is passed on until the port disconnects.
+chrome.runtime.onConnect.addListener((port) => {
+  if (port.name !== 'reputationEvents') return;
+  const controller = new AbortController();
+  port.onDisconnect.addListener(() => controller.abort());
+  port.onMessage.addListener((message) => {
+    if (message.action === 'subscribe' && message.sourceId) {
+      streamReputation(message.sourceId, port, controller.signal);
+    }
+  });
+});
+
+// Service workers have no EventSource, so the stream is read with fetch and reconnected here, resuming from the last id.
+async function streamReputation(sourceId, port, signal) {
+  let retryMs = 2000;
+  let lastEventId = null;
+  while (!signal.aborted) {
+    try {
+      const headers = lastEventId ? { 'Last-Event-ID': lastEventId } : {};
+      const response = await fetch(`${API_BASE}/sources/${encodeURIComponent(sourceId)}/events`, { headers, signal });
+      if (response.status === 404) return;
+      if (!response.ok || !response.body) throw new Error(`HTTP ${response.status}`);
+
+      const reader = response.body.pipeThrough(new TextDecoderStream()).getReader();
+      let buffer = '';
+      while (true) {
+        const { value, done } = await reader.read();
+        if (done) break;
+        buffer += value.replace(/\r\n?/g, '\n');
+        let end;
+        while ((end = buffer.indexOf('\n\n')) >= 0) {
+          const event = parseEvent(buffer.slice(0, end));
+          buffer = buffer.slice(end + 2);
+          if (event.retry) retryMs = event.retry;
+          if (event.id !== null) lastEventId = event.id;
+          if (event.type === 'reputation' && event.data) {
+            port.postMessage({ event: 'reputation', data: JSON.parse(event.data) });
+          }
+        }
+      }
+    } catch (error) {
+      if (signal.aborted) return;
+      console.debug('CrowdTruth: reputation stream dropped', error);
+    }
+    await new Promise((resolve) => setTimeout(resolve, retryMs));
+  }
+}
+
+function parseEvent(block) {
+  const event = { type: 'message', data: '', id: null, retry: null };
+  const data = [];
+  for (const line of block.split('\n')) {
+    if (!line || line.startsWith(':')) continue;
+    const colon = line.indexOf(':');
+    const field = colon < 0 ? line : line.slice(0, colon);
+    let value = colon < 0 ? '' : line.slice(colon + 1);
+    if (value.startsWith(' ')) value = value.slice(1);
+    if (field === 'event') event.type = value;
+    else if (field === 'data') data.push(value);
+    else if (field === 'id') event.id = value;
+    else if (field === 'retry' && /^\d+$/.test(value)) event.retry = Number(value);
+  }
+  event.data = data.join('\n');
+  return event;
+}
+
 chrome.tabs.onActivated.addListener(async (activeInfo) => {
   // Future: Update badge based on current tab reputation
 });
@@ -3,6 +3,8 @@ console.log("CrowdTruth: Content script initialized");
 const API_BASE = 'http://localhost:8080';
 let badge = null;
 let reputationBanner = null;
+let reputationData = null;
+let reputationPort = null;
 
 chrome.runtime.onMessage.addListener((request, sender, sendResponse) => {
   if (request.action === 'getCurrentUrl') {
@@ -37,8 +39,10 @@ async function fetchAndUpdateReputation() {
     });
 
     if (response.ok && response.data) {
-      updateBadge(response.data.reputation, response.data);
-      updateReputationBanner(response.data);
+      reputationData = response.data;
+      updateBadge(reputationData.reputation, reputationData);
+      updateReputationBanner(reputationData);
+      subscribeToReputation(reputationData.sourceId);
     } else {
       updateBadge(null, null);
       hideReputationBanner();
@@ -49,6 +53,32 @@ async function fetchAndUpdateReputation() {
   }
 }
 
+// The server pushes a frame whenever a post or vote changes this source, so the badge stays live without polling.
+// The background worker holds the stream, like every other server call; frames arrive over a port.
+function subscribeToReputation(sourceId) {
+  if (!sourceId || (reputationPort && reputationPort.sourceId === sourceId)) return;
+  if (reputationPort) reputationPort.disconnect();
+
+  const port = chrome.runtime.connect({ name: 'reputationEvents' });
+  port.sourceId = sourceId;
+  port.onMessage.addListener((message) => {
+    if (message.event !== 'reputation') return;
+    reputationData = Object.assign({}, reputationData, message.data);
+    updateBadge(reputationData.reputation, reputationData);
+    if (reputationBanner) {
+      updateReputationBanner(reputationData);
+    }
+  });
+  // The worker may be stopped while idle; subscribe again through a fresh one.
+  port.onDisconnect.addListener(() => {
+    if (reputationPort !== port) return;
+    reputationPort = null;
+    setTimeout(() => subscribeToReputation(sourceId), 1000);
+  });
+  port.postMessage({ action: 'subscribe', sourceId });
+  reputationPort = port;
+}
+
 function updateBadge(reputation, data) {
   if (!badge) return;
   
@@ -130,6 +130,13 @@ async function handleLogin() {
 }
 
 async function handleLogout() {
+  const { authToken } = await chrome.storage.local.get(['authToken']);
+  if (authToken) {
+    fetch(`${API_BASE}/auth/logout`, {
+      method: 'POST',
+      headers: { 'Authorization': `Bearer ${authToken}` }
+    }).catch((err) => console.error('Logout error:', err));
+  }
   await chrome.storage.local.remove(['authToken', 'userId']);
   const currentUrl = await getCurrentTabUrl();
   showAnonymousSection(currentUrl);
@@ -196,11 +203,44 @@ function displaySourceInfo(data, isAnonymous) {
       const postEl = createPostElement(post, isAnonymous);
       postsList.appendChild(postEl);
     });
+    if (data.nextCursor) {
+      appendLoadMore(postsList, data.nextCursor,
+        cursor => `${API_BASE}/sources/${data.sourceId}/posts?limit=50&cursor=${encodeURIComponent(cursor)}`,
+        post => createPostElement(post, isAnonymous));
+    }
   } else {
     postsList.innerHTML = '<p class="info">No posts yet.</p>';
   }
 }
 
+// Adds a "Load more" button under a paged list; each click appends the next page until nextCursor runs out
+function appendLoadMore(list, cursor, pageUrl, renderPost) {
+  const button = document.createElement('button');
+  button.className = 'small load-more';
+  button.textContent = 'Load more';
+  button.addEventListener('click', async () => {
+    button.disabled = true;
+    button.textContent = 'Loading...';
+    try {
+      const response = await fetch(pageUrl(cursor));
+      const data = await response.json();
+      if (!response.ok || !data.ok) {
+        throw new Error(data.error || 'Failed to load posts');
+      }
+      button.remove();
+      data.posts.forEach(post => list.appendChild(renderPost(post)));
+      if (data.nextCursor) {
+        appendLoadMore(list, data.nextCursor, pageUrl, renderPost);
+      }
+    } catch (err) {
+      button.disabled = false;
+      button.textContent = 'Load more';
+      console.error('Error loading more posts:', err);
+    }
+  });
+  list.appendChild(button);
+}
+
 function createPostElement(post, isAnonymous) {
   const div = document.createElement('div');
   div.className = 'post-item';
@@ -436,20 +476,12 @@ async function handleViewMyPosts() {
     
     // Display posts
     myPostsList.innerHTML = '';
-    data.posts.forEach(post => {
-      const postDiv = document.createElement('div');
-      postDiv.className = 'post-item';
-      postDiv.innerHTML = `
-        <div class="post-header">${post.title}</div>
-        <div class="post-comment">${post.comment}</div>
-        <div class="post-meta">
-          On: <a href="${post.sourceUrl}" target="_blank">${post.sourceTitle || post.sourceUrl}</a><br>
-          Rating: ${post.rating.toFixed(1)} | ${post.agreeCount} agree / ${post.disagreeCount} disagree<br>
-          Posted: ${new Date(post.createdAt).toLocaleDateString()}
-        </div>
-      `;
-      myPostsList.appendChild(postDiv);
-    });
+    data.posts.forEach(post => myPostsList.appendChild(createHistoryElement(post)));
+    if (data.nextCursor) {
+      appendLoadMore(myPostsList, data.nextCursor,
+        cursor => `${API_BASE}/users/${userId}/posts?limit=50&cursor=${encodeURIComponent(cursor)}`,
+        createHistoryElement);
+    }
     
     myPostsList.style.display = 'block';
     btn.textContent = 'Hide My Posts';
@@ -461,6 +493,21 @@ async function handleViewMyPosts() {
   }
 }
 
+function createHistoryElement(post) {
+  const postDiv = document.createElement('div');
+  postDiv.className = 'post-item';
+  postDiv.innerHTML = `
+    <div class="post-header">${post.title}</div>
+    <div class="post-comment">${post.comment}</div>
+    <div class="post-meta">
+      On: <a href="${post.sourceUrl}" target="_blank">${post.sourceTitle || post.sourceUrl}</a><br>
+      Rating: ${post.rating.toFixed(1)} | ${post.agreeCount} agree / ${post.disagreeCount} disagree<br>
+      Posted: ${new Date(post.createdAt).toLocaleDateString()}
+    </div>
+  `;
+  return postDiv;
+}
+
 // Export user data
 async function handleExportData() {
   const result = await chrome.storage.local.get(['authToken', 'userId']);
@@ -0,0 +1,162 @@
+package edu.ncsu.hacknc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Incrementally maintained vote/post aggregates in {@code source_stats} and
+ * {@code post_stats}. The record* methods must run on the writer connection
+ * inside the same transaction as the insert they account for.
+ *
+ * Each source_stats row also carries a version that only ever goes up: every
+ * change to what GET /sources returns for the source bumps it, so the id and
+ * version together identify one response body.
+ */
+public final class Aggregates {
+
+    private static final String EXPECTED_POST_STATS =
+            "SELECT p.id AS post_id, " +
+            "COALESCE(SUM(v.rating), 0) AS rating_sum, " +
+            "COUNT(v.id) AS vote_count, " +
+            "COALESCE(SUM(CASE WHEN v.agree = 1 THEN 1 ELSE 0 END), 0) AS agree_count, " +
+            "COALESCE(SUM(CASE WHEN v.agree = 0 THEN 1 ELSE 0 END), 0) AS disagree_count " +
+            "FROM posts p LEFT JOIN votes v ON v.post_id = p.id GROUP BY p.id";
+
+    private static final String EXPECTED_SOURCE_STATS =
+            "SELECT s.id AS source_id, " +
+            "COALESCE(SUM(ps.rating_sum), 0) AS rating_sum, " +
+            "COALESCE(SUM(ps.vote_count), 0) AS vote_count, " +
+            "COALESCE(SUM(ps.agree_count), 0) AS agree_count, " +
+            "COALESCE(SUM(ps.disagree_count), 0) AS disagree_count, " +
+            "COUNT(ps.post_id) AS post_count " +
+            "FROM sources s LEFT JOIN posts p ON p.source_id = s.id " +
+            "LEFT JOIN (" + EXPECTED_POST_STATS + ") ps ON ps.post_id = p.id " +
+            "GROUP BY s.id";
+
+    private Aggregates() {
+    }
+
+    public static void recordSource(Connection conn, long sourceId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT OR IGNORE INTO source_stats (source_id) VALUES (?)")) {
+            stmt.setLong(1, sourceId);
+            stmt.executeUpdate();
+        }
+    }
+
+    public static void recordPost(Connection conn, long sourceId, long postId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO post_stats (post_id) VALUES (?)")) {
+            stmt.setLong(1, postId);
+            stmt.executeUpdate();
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO source_stats (source_id, post_count, version) VALUES (?, 1, 1) " +
+                "ON CONFLICT(source_id) DO UPDATE SET post_count = post_count + 1, version = version + 1")) {
+            stmt.setLong(1, sourceId);
+            stmt.executeUpdate();
+        }
+    }
+
+    // Returns the id of the source the voted post belongs to.
+    public static long recordVote(Connection conn, long postId, boolean agree, int rating) throws SQLException {
+        long sourceId;
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT source_id FROM posts WHERE id = ?")) {
+            stmt.setLong(1, postId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("Unknown post " + postId);
+                }
+                sourceId = rs.getLong("source_id");
+            }
+        }
+
+        int agreeDelta = agree ? 1 : 0;
+        int disagreeDelta = agree ? 0 : 1;
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "UPDATE post_stats SET rating_sum = rating_sum + ?, vote_count = vote_count + 1, " +
+                "agree_count = agree_count + ?, disagree_count = disagree_count + ? WHERE post_id = ?")) {
+            stmt.setInt(1, rating);
+            stmt.setInt(2, agreeDelta);
+            stmt.setInt(3, disagreeDelta);
+            stmt.setLong(4, postId);
+            stmt.executeUpdate();
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "UPDATE source_stats SET rating_sum = rating_sum + ?, vote_count = vote_count + 1, " +
+                "agree_count = agree_count + ?, disagree_count = disagree_count + ?, version = version + 1 " +
+                "WHERE source_id = ?")) {
+            stmt.setInt(1, rating);
+            stmt.setInt(2, agreeDelta);
+            stmt.setInt(3, disagreeDelta);
+            stmt.setLong(4, sourceId);
+            stmt.executeUpdate();
+        }
+        return sourceId;
+    }
+
+    // For changes to the source row itself, such as a title filled in later.
+    public static void recordSourceChange(Connection conn, long sourceId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "UPDATE source_stats SET version = version + 1 WHERE source_id = ?")) {
+            stmt.setLong(1, sourceId);
+            stmt.executeUpdate();
+        }
+    }
+
+    public static double reputation(long ratingSum, long voteCount) {
+        return voteCount == 0 ? 0.0 : ratingSum / (double) voteCount;
+    }
+
+    // Recomputes every aggregate row from the base tables.
+    public static void rebuild(Connection conn) throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            // Rebuilt rows all start past the highest old version, so no ETag already handed out matches.
+            long nextVersion;
+            try (ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(version), 0) + 1 FROM source_stats")) {
+                nextVersion = rs.next() ? rs.getLong(1) : 1L;
+            }
+            stmt.executeUpdate("DELETE FROM source_stats");
+            stmt.executeUpdate("DELETE FROM post_stats");
+            stmt.executeUpdate("INSERT INTO post_stats " +
+                    "(post_id, rating_sum, vote_count, agree_count, disagree_count) " + EXPECTED_POST_STATS);
+            stmt.executeUpdate("INSERT INTO source_stats " +
+                    "(source_id, rating_sum, vote_count, agree_count, disagree_count, post_count) " +
+                    EXPECTED_SOURCE_STATS);
+            stmt.executeUpdate("UPDATE source_stats SET version = " + nextVersion);
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    // Returns the number of aggregate rows that disagree with the base tables.
+    public static int verify(Connection conn) throws SQLException {
+        return countDrift(conn, EXPECTED_POST_STATS,
+                "SELECT post_id, rating_sum, vote_count, agree_count, disagree_count FROM post_stats")
+                + countDrift(conn, EXPECTED_SOURCE_STATS,
+                "SELECT source_id, rating_sum, vote_count, agree_count, disagree_count, post_count " +
+                "FROM source_stats");
+    }
+
+    private static int countDrift(Connection conn, String expected, String actual) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(
+                        "SELECT " +
+                        "(SELECT COUNT(*) FROM (SELECT * FROM (" + expected + ") " +
+                        "EXCEPT SELECT * FROM (" + actual + "))) + " +
+                        "(SELECT COUNT(*) FROM (SELECT * FROM (" + actual + ") " +
+                        "EXCEPT SELECT * FROM (" + expected + "))) AS drift")) {
+            return rs.next() ? rs.getInt("drift") : 0;
+        }
+    }
+}
@@ -46,7 +46,7 @@ public class ApiTest {
 		}
 
 		PasswordUtil.HashedPassword hashed = PasswordUtil.hashPassword(password);
-		try (Connection conn = Database.getConnection();
+		try (Connection conn = Database.getWriteConnection();
 				PreparedStatement insert = conn.prepareStatement(
 						"INSERT INTO users (id, email, password_hash, password_salt) VALUES (?, ?, ?, ?)")) {
 			insert.setString(1, id);
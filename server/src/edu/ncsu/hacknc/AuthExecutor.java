@@ -0,0 +1,108 @@
+package edu.ncsu.hacknc;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Dedicated, queue-bounded executor for PBKDF2 work (registration and login)
+ * so password hashing never competes with reads on the HTTP executor. A full
+ * queue or a client over its concurrency limit is rejected immediately rather
+ * than queued.
+ */
+public final class AuthExecutor {
+
+    public enum Admission {
+        ACCEPTED,
+        CLIENT_LIMITED,
+        OVERLOADED
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final int maxPerClient;
+    private final ConcurrentHashMap<String, Integer> inFlightByClient = new ConcurrentHashMap<>();
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LongAdder overloadRejections = new LongAdder();
+    private final LongAdder clientRejections = new LongAdder();
+
+    public AuthExecutor(int threads, int queueCapacity, int maxPerClient) {
+        this.maxPerClient = maxPerClient;
+        AtomicInteger threadIds = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "auth-worker-" + threadIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), factory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public Admission submit(String clientKey, Runnable task) {
+        int inFlight = inFlightByClient.merge(clientKey, 1, Integer::sum);
+        if (inFlight > maxPerClient) {
+            release(clientKey);
+            clientRejections.increment();
+            return Admission.CLIENT_LIMITED;
+        }
+
+        long enqueuedAt = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                queueWait.recordNanos(System.nanoTime() - enqueuedAt);
+                try {
+                    task.run();
+                } finally {
+                    release(clientKey);
+                }
+            });
+            return Admission.ACCEPTED;
+        } catch (RejectedExecutionException e) {
+            release(clientKey);
+            overloadRejections.increment();
+            return Admission.OVERLOADED;
+        }
+    }
+
+    public int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    public int getActive() {
+        return executor.getActiveCount();
+    }
+
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    public void writeTo(JsonWriter json) throws IOException {
+        json.beginObject()
+            .field("threads", executor.getMaximumPoolSize())
+            .field("active", executor.getActiveCount())
+            .field("queued", executor.getQueue().size())
+            .field("queueCapacity", executor.getQueue().size() + executor.getQueue().remainingCapacity())
+            .field("overloadRejections", overloadRejections.sum())
+            .field("clientRejections", clientRejections.sum());
+        json.name("queueWait");
+        queueWait.snapshot().writeTo(json);
+        json.name("hash");
+        PasswordUtil.getHashLatency().snapshot().writeTo(json);
+        json.name("verify");
+        PasswordUtil.getVerifyLatency().snapshot().writeTo(json);
+        json.endObject();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private void release(String clientKey) {
+        inFlightByClient.computeIfPresent(clientKey, (key, count) -> count <= 1 ? null : count - 1);
+    }
+}
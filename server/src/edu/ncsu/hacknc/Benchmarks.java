@@ -0,0 +1,371 @@
+package edu.ncsu.hacknc;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-process microbenchmarks for hot helpers. Each case is warmed up before
+ * it is timed and results feed a sink so the JIT cannot drop the work.
+ *
+ * Usage: Benchmarks [case] [size] (default: all)
+ *
+ * The search, ids and render cases build a scratch database through
+ * {@link Database}, so they need the SQLite driver on the classpath. With
+ * -Dcrowdtruth.bench.json=true each result is printed as one JSON object per
+ * line instead of a table row, for comparing runs in scripts.
+ */
+public class Benchmarks {
+
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int MEASURED_ROUNDS = 10;
+	private static final long ROUND_NANOS = 200_000_000L;
+	private static final boolean JSON = Boolean.getBoolean("crowdtruth.bench.json");
+
+	private static final String POST_BODY = "{\"sourceId\":\"1723622129172480\","
+			+ "\"title\":\"Study misquoted in viral thread\","
+			+ "\"comment\":\"The article cites the 2019 survey but the \\\"60%\\\" figure is from a different "
+			+ "sample.\\nSee the methodology section, p. 4. Caf\u00e9 owners were excluded.\"}";
+	private static final String VOTE_BODY = "{\"postId\":\"1723622129172481\",\"agree\":true,\"rating\":4}";
+
+	private static final String LIKE_SEARCH_SQL = "SELECT p.id, p.title, p.comment, p.user_id, p.created_at, "
+			+ "s.url, s.title AS source_title FROM posts p LEFT JOIN sources s ON s.id = p.source_id "
+			+ "WHERE LOWER(p.title) LIKE ? OR LOWER(p.comment) LIKE ? ORDER BY p.created_at DESC LIMIT ?";
+
+	private static final String[] WORDS = { "vaccine", "study", "climate", "report", "election", "poll",
+			"misquoted", "figure", "survey", "sample", "source", "article", "claim", "context", "chart",
+			"percent", "budget", "economy", "health", "court", "ruling", "senator", "video", "photo",
+			"edited", "satire", "original", "retracted", "correction", "statement", "data", "trend" };
+
+	// Zipf-like vocabulary with the real words placed at middling frequencies, so
+	// queries match a realistic fraction of posts rather than most of them.
+	private static final String[] VOCABULARY = new String[20_000];
+
+	static {
+		for (int i = 0; i < VOCABULARY.length; i++) {
+			VOCABULARY[i] = "w" + Integer.toHexString(i);
+		}
+		for (int i = 0; i < WORDS.length; i++) {
+			VOCABULARY[i * 500 + 250] = WORDS[i];
+		}
+	}
+
+	private static long sink;
+
+	public static void main(String[] args) throws Exception {
+		String only = args.length > 0 ? args[0] : null;
+		if (only == null || only.equals("json")) {
+			benchJson();
+		}
+		if (only == null || only.equals("search")) {
+			benchSearch(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+		}
+		if (only == null || only.equals("ids")) {
+			benchIds(args.length > 1 ? Integer.parseInt(args[1]) : 500_000);
+		}
+		if (only == null || only.equals("password")) {
+			benchPassword();
+		}
+		if (only == null || only.equals("render")) {
+			benchRender(args.length > 1 ? Integer.parseInt(args[1]) : 100_000);
+		}
+	}
+
+	private static void benchJson() throws Exception {
+		byte[] post = POST_BODY.getBytes(StandardCharsets.UTF_8);
+		byte[] vote = VOTE_BODY.getBytes(StandardCharsets.UTF_8);
+		measure("json.regex.post", () -> LegacyJson.parseObject(new String(post, StandardCharsets.UTF_8)).size());
+		measure("json.reader.post", () -> JsonReader.parseObject(new ByteArrayInputStream(post), post.length).size());
+		measure("json.regex.vote", () -> LegacyJson.parseObject(new String(vote, StandardCharsets.UTF_8)).size());
+		measure("json.reader.vote", () -> JsonReader.parseObject(new ByteArrayInputStream(vote), vote.length).size());
+	}
+
+	// PBKDF2 cost per login and registration; bounds what the auth executor can sustain.
+	private static void benchPassword() throws Exception {
+		PasswordUtil.HashedPassword hashed = PasswordUtil.hashPassword("Bench!1a");
+		measure("password.hash", 1, () -> PasswordUtil.hashPassword("Bench!1a").getHashHex().length());
+		measure("password.verify", 1,
+				() -> PasswordUtil.verifyPassword("Bench!1a", hashed.getSaltHex(), hashed.getHashHex()) ? 1 : 0);
+	}
+
+	/*
+	 * The uncached GET /sources and /sources/summary bodies, rendered from a
+	 * scratch database with about 100 posts per source: query plus JSON, as
+	 * served on a source cache miss.
+	 */
+	private static void benchRender(int postCount) throws Exception {
+		withScratchDatabase(() -> {
+			System.err.printf("seeding %d posts...%n", postCount);
+			seedPosts(postCount);
+			int sourceCount = Math.max(1, postCount / 100);
+			Random random = new Random(3);
+			measure("render.source", 1, () -> {
+				try (Connection conn = Database.getConnection()) {
+					JsonWriter json = JsonWriter.inMemory();
+					Main.writeSource(json, conn, random.nextInt(sourceCount) + 1);
+					return json.toByteArray().length;
+				}
+			});
+			measure("render.summary", 1, () -> {
+				try (Connection conn = Database.getConnection()) {
+					JsonWriter json = JsonWriter.inMemory();
+					Main.writeSourceSummary(json, conn, (long) (random.nextInt(sourceCount) + 1), null);
+					return json.toByteArray().length;
+				}
+			});
+		});
+	}
+
+	private static void benchSearch(int postCount) throws Exception {
+		withScratchDatabase(() -> {
+			System.err.printf("seeding %d posts...%n", postCount);
+			seedPosts(postCount);
+			String[] queries = { "misquoted", "clim", "retracted chart" };
+			for (String q : queries) {
+				String like = "%" + q.toLowerCase() + "%";
+				String match = SearchIndex.toMatchQuery(q);
+				String name = q.replace(' ', '_');
+				measure("search.like." + name, 1, () -> query(LIKE_SEARCH_SQL, like, like, 20));
+				measure("search.fts." + name, 1, () -> query(SearchIndex.postSearchSql(false), match, 20, match));
+			}
+		});
+	}
+
+	/*
+	 * Random UUID TEXT keys against time-ordered INTEGER keys, on a posts table
+	 * and a WITHOUT ROWID stats table shaped like the real ones: id generation,
+	 * appending 1000 posts (+ stats rows) to a table that already holds
+	 * rowCount, and the per-source posts-to-stats join behind GET /sources.
+	 */
+	private static void benchIds(int rowCount) throws Exception {
+		measure("ids.generate.uuid", () -> UUID.randomUUID().toString().length());
+		measure("ids.generate.time64", Ids::next);
+
+		withScratchDatabase(() -> {
+			int sourceCount = Math.max(1, rowCount / 100);
+			for (String scheme : new String[] { "uuid", "time64" }) {
+				String keyType = scheme.equals("uuid") ? "TEXT" : "INTEGER";
+				try (Connection conn = Database.getWriteConnection();
+						Statement stmt = conn.createStatement()) {
+					stmt.execute("CREATE TABLE " + scheme + "_posts (id " + keyType + " PRIMARY KEY, "
+							+ "source_id " + keyType + " NOT NULL, created_at INTEGER NOT NULL)");
+					stmt.execute("CREATE TABLE " + scheme + "_stats (post_id " + keyType + " PRIMARY KEY, "
+							+ "vote_count INTEGER NOT NULL DEFAULT 0) WITHOUT ROWID");
+					stmt.execute("CREATE INDEX " + scheme + "_posts_source ON " + scheme + "_posts(source_id)");
+				}
+				System.err.printf("seeding %d %s posts...%n", rowCount, scheme);
+				for (int i = 0; i < rowCount; i += 1000) {
+					insertKeyedPosts(scheme, Math.min(1000, rowCount - i), sourceCount);
+				}
+				measure("ids.insert1000." + scheme, 1, () -> insertKeyedPosts(scheme, 1000, sourceCount));
+
+				Random random = new Random(7);
+				String join = "SELECT p.id, st.vote_count FROM " + scheme + "_posts p JOIN " + scheme
+						+ "_stats st ON st.post_id = p.id WHERE p.source_id = ? ORDER BY p.created_at DESC";
+				measure("ids.join." + scheme, 1, () -> query(join, keyedSource(scheme, random.nextInt(sourceCount))));
+			}
+		});
+	}
+
+	private static long insertKeyedPosts(String scheme, int count, int sourceCount) throws Exception {
+		boolean uuid = scheme.equals("uuid");
+		Random random = new Random();
+		try (Connection conn = Database.getWriteConnection();
+				PreparedStatement post = conn.prepareStatement(
+						"INSERT INTO " + scheme + "_posts (id, source_id, created_at) VALUES (?, ?, ?)");
+				PreparedStatement stats = conn.prepareStatement(
+						"INSERT INTO " + scheme + "_stats (post_id) VALUES (?)")) {
+			conn.setAutoCommit(false);
+			for (int i = 0; i < count; i++) {
+				Object id = uuid ? UUID.randomUUID().toString() : (Object) Ids.next();
+				post.setObject(1, id);
+				post.setObject(2, keyedSource(scheme, random.nextInt(sourceCount)));
+				post.setLong(3, System.currentTimeMillis());
+				post.executeUpdate();
+				stats.setObject(1, id);
+				stats.executeUpdate();
+			}
+			conn.commit();
+			conn.setAutoCommit(true);
+		}
+		return count;
+	}
+
+	// Stable per-scheme key for source n, so both schemes spread posts the same way.
+	private static Object keyedSource(String scheme, int n) {
+		if (scheme.equals("uuid")) {
+			return UUID.nameUUIDFromBytes(Integer.toString(n).getBytes(StandardCharsets.UTF_8)).toString();
+		}
+		return (long) (n + 1);
+	}
+
+	private static void withScratchDatabase(Task body) throws Exception {
+		Path file = Files.createTempFile("crowdtruth-bench", ".db");
+		System.setProperty("crowdtruth.db.url", "jdbc:sqlite:" + file);
+		try {
+			Database.init();
+			body.run();
+		} finally {
+			Database.shutdown();
+			Files.deleteIfExists(file);
+			Files.deleteIfExists(Path.of(file + "-wal"));
+			Files.deleteIfExists(Path.of(file + "-shm"));
+		}
+	}
+
+	private static void seedPosts(int postCount) throws Exception {
+		Random random = new Random(42);
+		int sourceCount = Math.max(1, postCount / 100);
+		try (Connection conn = Database.getWriteConnection()) {
+			conn.setAutoCommit(false);
+			try (PreparedStatement user = conn.prepareStatement(
+					"INSERT INTO users (id, email, password_hash, password_salt) VALUES ('bench', 'bench@example.com', '', '')")) {
+				user.executeUpdate();
+			}
+			try (PreparedStatement source = conn.prepareStatement(
+					"INSERT INTO sources (id, url, url_key, title) VALUES (?, ?, ?, ?)")) {
+				for (int i = 0; i < sourceCount; i++) {
+					String url = "https://example.com/" + words(random, 2).replace(' ', '/') + "/" + i;
+					source.setLong(1, i + 1);
+					source.setString(2, url);
+					source.setLong(3, SecurityUtil.urlKey(url));
+					source.setString(4, words(random, 6));
+					source.addBatch();
+				}
+				source.executeBatch();
+			}
+			try (PreparedStatement post = conn.prepareStatement(
+					"INSERT INTO posts (id, source_id, user_id, title, comment, created_at) VALUES (?, ?, 'bench', ?, ?, ?)")) {
+				for (int i = 0; i < postCount; i++) {
+					post.setLong(1, i + 1);
+					post.setLong(2, random.nextInt(sourceCount) + 1);
+					post.setString(3, words(random, 5));
+					post.setString(4, words(random, 30));
+					post.setLong(5, i);
+					post.addBatch();
+					if (i % 10_000 == 9_999) {
+						post.executeBatch();
+					}
+				}
+				post.executeBatch();
+			}
+			conn.commit();
+			Aggregates.rebuild(conn);
+			SearchIndex.rebuild(conn);
+			conn.commit();
+		}
+	}
+
+	private static String words(Random random, int count) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				sb.append(' ');
+			}
+			sb.append(VOCABULARY[(int) (VOCABULARY.length * Math.pow(random.nextDouble(), 4))]);
+		}
+		return sb.toString();
+	}
+
+	private static long query(String sql, Object... params) throws Exception {
+		try (Connection conn = Database.getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+			for (int i = 0; i < params.length; i++) {
+				stmt.setObject(i + 1, params[i]);
+			}
+			long rows = 0;
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					rows++;
+				}
+			}
+			return rows;
+		}
+	}
+
+	private static void measure(String name, Op op) throws Exception {
+		measure(name, 256, op);
+	}
+
+	// batch is how many ops run between clock reads; use 1 for slow operations.
+	private static void measure(String name, int batch, Op op) throws Exception {
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			round(op, batch);
+		}
+		double best = Double.MAX_VALUE;
+		double total = 0;
+		for (int i = 0; i < MEASURED_ROUNDS; i++) {
+			double nsPerOp = round(op, batch);
+			best = Math.min(best, nsPerOp);
+			total += nsPerOp;
+		}
+		if (JSON) {
+			System.out.printf(Locale.ROOT, "{\"name\":%s,\"avgNsPerOp\":%.1f,\"bestNsPerOp\":%.1f}%n",
+					JsonUtil.quote(name), total / MEASURED_ROUNDS, best);
+		} else {
+			System.out.printf("%-32s avg=%14.1f ns/op  best=%14.1f ns/op%n", name, total / MEASURED_ROUNDS, best);
+		}
+	}
+
+	private static double round(Op op, int batch) throws Exception {
+		long ops = 0;
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			for (int i = 0; i < batch; i++) {
+				sink += op.run();
+			}
+			ops += batch;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < ROUND_NANOS);
+		return elapsed / (double) ops;
+	}
+
+	private interface Op {
+		long run() throws Exception;
+	}
+
+	private interface Task {
+		void run() throws Exception;
+	}
+
+	// The regex parser JsonUtil used before JsonReader, kept as a baseline.
+	private static final class LegacyJson {
+		private static final Pattern PAIR = Pattern.compile(
+				"\"([^\"]+)\"\\s*:\\s*(\"(?:\\\\.|[^\"])*\"|true|false|-?\\d+(?:\\.\\d+)?)");
+
+		static Map<String, String> parseObject(String json) {
+			Map<String, String> map = new HashMap<>();
+			Matcher matcher = PAIR.matcher(json);
+			while (matcher.find()) {
+				String raw = matcher.group(2);
+				if (raw.startsWith("\"") && raw.endsWith("\"")) {
+					map.put(matcher.group(1), unquote(raw));
+				} else {
+					map.put(matcher.group(1), raw);
+				}
+			}
+			return map;
+		}
+
+		private static String unquote(String raw) {
+			String s = raw.substring(1, raw.length() - 1);
+			return s.replace("\\\"", "\"")
+					.replace("\\\\", "\\")
+					.replace("\\n", "\n")
+					.replace("\\r", "\r")
+					.replace("\\t", "\t");
+		}
+	}
+}
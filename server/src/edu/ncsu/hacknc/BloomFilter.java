@@ -0,0 +1,171 @@
+package edu.ncsu.hacknc;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free Bloom filter over 64-bit keys that are already well mixed, such as
+ * {@link SecurityUtil#urlKey}. The key and its upper half seed double
+ * hashing, so nothing is rehashed per probe. A "no" from
+ * {@link #mightContain} is definite; a "yes" is wrong with roughly the
+ * configured probability while no more than the expected number of keys have
+ * been added. Keys cannot be removed.
+ *
+ * Callers that go on to check a "yes" against the real data report misses
+ * through {@link #recordFalsePositives}, which gives an observed false-positive
+ * rate next to the estimated one.
+ */
+public final class BloomFilter {
+
+    private static final double LN2 = Math.log(2);
+
+    private final AtomicLongArray words;
+    private final long bitCount;
+    private final int hashCount;
+    private final long expectedInsertions;
+
+    private final LongAdder insertions = new LongAdder();
+    private final LongAdder negatives = new LongAdder();
+    private final LongAdder positives = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    private BloomFilter(long bitCount, int hashCount, long expectedInsertions) {
+        long wordCount = (bitCount + 63) / 64;
+        if (wordCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bloom filter too large: " + bitCount + " bits");
+        }
+        this.words = new AtomicLongArray((int) wordCount);
+        this.bitCount = wordCount * 64;
+        this.hashCount = hashCount;
+        this.expectedInsertions = expectedInsertions;
+    }
+
+    // Sized for expectedInsertions keys at the given false-positive probability.
+    public static BloomFilter create(long expectedInsertions, double fpp) {
+        if (expectedInsertions < 1) {
+            throw new IllegalArgumentException("Expected insertions must be at least 1");
+        }
+        if (!(fpp > 0.0 && fpp < 1.0)) {
+            throw new IllegalArgumentException("False-positive probability must be between 0 and 1");
+        }
+        long bits = Math.max(64L, (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (LN2 * LN2)));
+        int hashes = Math.max(1, (int) Math.round((double) bits / expectedInsertions * LN2));
+        return new BloomFilter(bits, hashes, expectedInsertions);
+    }
+
+    // Returns true if the key was (probably) not present before.
+    public boolean put(long key) {
+        long h2 = (key >>> 32) | 1;
+        boolean changed = false;
+        for (int i = 1; i <= hashCount; i++) {
+            long bit = index(key, h2, i);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current = words.get(word);
+            while ((current & mask) == 0) {
+                long witness = words.compareAndExchange(word, current, current | mask);
+                if (witness == current) {
+                    changed = true;
+                    break;
+                }
+                current = witness;
+            }
+        }
+        if (changed) {
+            insertions.increment();
+        }
+        return changed;
+    }
+
+    public boolean mightContain(long key) {
+        long h2 = (key >>> 32) | 1;
+        for (int i = 1; i <= hashCount; i++) {
+            long bit = index(key, h2, i);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                negatives.increment();
+                return false;
+            }
+        }
+        positives.increment();
+        return true;
+    }
+
+    // "Maybe" answers from mightContain that turned out to be absent.
+    public void recordFalsePositives(long count) {
+        falsePositives.add(count);
+    }
+
+    public Stats stats() {
+        long n = insertions.sum();
+        double estimated = Math.pow(1.0 - Math.exp(-(double) hashCount * n / bitCount), hashCount);
+        return new Stats(bitCount, hashCount, expectedInsertions, n, negatives.sum(), positives.sum(),
+                falsePositives.sum(), estimated);
+    }
+
+    // Probe i of h1 + i * h2; h2 is forced odd so it is never zero.
+    private long index(long h1, long h2, int i) {
+        return ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+    }
+
+    public static final class Stats {
+        private final long bitCount;
+        private final int hashCount;
+        private final long expectedInsertions;
+        private final long insertions;
+        private final long negatives;
+        private final long positives;
+        private final long falsePositives;
+        private final double estimatedFpp;
+
+        private Stats(long bitCount, int hashCount, long expectedInsertions, long insertions, long negatives,
+                long positives, long falsePositives, double estimatedFpp) {
+            this.bitCount = bitCount;
+            this.hashCount = hashCount;
+            this.expectedInsertions = expectedInsertions;
+            this.insertions = insertions;
+            this.negatives = negatives;
+            this.positives = positives;
+            this.falsePositives = falsePositives;
+            this.estimatedFpp = estimatedFpp;
+        }
+
+        public long getBitCount() {
+            return bitCount;
+        }
+
+        public int getHashCount() {
+            return hashCount;
+        }
+
+        public long getExpectedInsertions() {
+            return expectedInsertions;
+        }
+
+        public long getInsertions() {
+            return insertions;
+        }
+
+        public long getNegatives() {
+            return negatives;
+        }
+
+        public long getPositives() {
+            return positives;
+        }
+
+        public long getFalsePositives() {
+            return falsePositives;
+        }
+
+        // From the fill so far: (1 - e^(-kn/m))^k.
+        public double getEstimatedFpp() {
+            return estimatedFpp;
+        }
+
+        // Of the lookups for keys that were absent, the share the filter failed to reject.
+        public double getObservedFpp() {
+            long absent = negatives + falsePositives;
+            return absent == 0 ? 0.0 : (double) falsePositives / absent;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package edu.ncsu.hacknc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * BloomFilter check. Adds url keys, random keys and poorly mixed ones
+ * (small consecutive numbers), sequentially and from several threads at
+ * once, and checks that every added key is reported as possibly present:
+ * a false negative would make the server answer 404 for a source that
+ * exists. Also checks that the false-positive rate on keys never added stays
+ * near the configured one. Exits 1 on failure.
+ */
+public class BloomFilterTest {
+
+	private static final int KEYS = 100_000;
+	private static final double FPP = 0.01;
+	private static final int THREADS = 8;
+
+	private static final List<String> failures = new ArrayList<>();
+
+	public static void main(String[] args) throws Exception {
+		long[] urlKeys = new long[KEYS];
+		for (int i = 0; i < KEYS; i++) {
+			urlKeys[i] = SecurityUtil.urlKey("https://example.com/article/" + i);
+		}
+		Random random = new Random(42);
+		long[] randomKeys = new long[KEYS];
+		for (int i = 0; i < KEYS; i++) {
+			randomKeys[i] = random.nextLong();
+		}
+		long[] smallKeys = new long[KEYS];
+		for (int i = 0; i < KEYS; i++) {
+			smallKeys[i] = i;
+		}
+
+		checkNoFalseNegatives("url keys", urlKeys);
+		checkNoFalseNegatives("random keys", randomKeys);
+		checkNoFalseNegatives("small consecutive keys", smallKeys);
+		checkConcurrentPuts("concurrent puts", urlKeys);
+
+		BloomFilter filter = BloomFilter.create(KEYS, FPP);
+		for (long key : urlKeys) {
+			filter.put(key);
+		}
+		int falsePositives = 0;
+		for (int i = 0; i < KEYS; i++) {
+			if (filter.mightContain(SecurityUtil.urlKey("https://example.org/other/" + i))) {
+				falsePositives++;
+			}
+		}
+		double observed = falsePositives / (double) KEYS;
+		System.out.printf("     false-positive rate %.4f (configured %.2f, estimated %.4f)%n",
+				observed, FPP, filter.stats().getEstimatedFpp());
+		check("false-positive rate near the configured one", observed < FPP * 2);
+
+		BloomFilter single = BloomFilter.create(10, FPP);
+		check("first put reports a new key", single.put(7L));
+		check("second put reports a known key", !single.put(7L));
+		check("tiny filter still works", single.mightContain(7L));
+
+		if (!failures.isEmpty()) {
+			System.out.println(failures.size() + " Bloom filter check(s) failed");
+			System.exit(1);
+		}
+		System.out.println("Bloom filter checks passed");
+	}
+
+	private static void checkNoFalseNegatives(String name, long[] keys) {
+		// Also with far more keys than the filter was sized for, where only the false-positive rate may suffer.
+		for (int expected : new int[] { keys.length, keys.length / 100 }) {
+			BloomFilter filter = BloomFilter.create(expected, FPP);
+			for (long key : keys) {
+				filter.put(key);
+			}
+			int missing = 0;
+			for (long key : keys) {
+				if (!filter.mightContain(key)) {
+					missing++;
+				}
+			}
+			if (missing > 0) {
+				System.out.println("     ! " + missing + " key(s) missing");
+			}
+			check(name + (expected < keys.length ? ", overfilled" : ""), missing == 0);
+		}
+	}
+
+	// Threads set bits in the same words at once; a lost compare-and-set would lose a key.
+	private static void checkConcurrentPuts(String name, long[] keys) throws Exception {
+		BloomFilter filter = BloomFilter.create(keys.length, FPP);
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<?>> done = new ArrayList<>();
+			for (int t = 0; t < THREADS; t++) {
+				int first = t;
+				done.add(pool.submit(() -> {
+					for (int i = first; i < keys.length; i += THREADS) {
+						filter.put(keys[i]);
+					}
+				}));
+			}
+			for (Future<?> future : done) {
+				future.get();
+			}
+		} finally {
+			pool.shutdown();
+		}
+		int missing = 0;
+		for (long key : keys) {
+			if (!filter.mightContain(key)) {
+				missing++;
+			}
+		}
+		check(name, missing == 0);
+	}
+
+	private static void check(String name, boolean ok) {
+		System.out.printf("%-4s %s%n", ok ? "ok" : "FAIL", name);
+		if (!ok) {
+			failures.add(name);
+		}
+	}
+}
@@ -0,0 +1,282 @@
+package edu.ncsu.hacknc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Response compression negotiated from Accept-Encoding. Bodies shorter than
+ * crowdtruth.compression.minBytes go out as they are, since the headers and
+ * framing would eat most of the saving.
+ *
+ * Deflaters hold native zlib state that is costly to create and is only freed
+ * by end() or the GC, so they are pooled and reset between responses instead
+ * of allocated per request. gzip is written as its header and trailer around
+ * a raw (nowrap) deflater so the same pool serves it; "deflate" is zlib
+ * framing as HTTP defines it.
+ */
+public final class Compression {
+
+    public enum Encoding {
+        GZIP("gzip"), DEFLATE("deflate");
+
+        private final String token;
+
+        Encoding(String token) {
+            this.token = token;
+        }
+
+        public String token() {
+            return token;
+        }
+    }
+
+    private static final int MIN_BYTES = Integer.getInteger("crowdtruth.compression.minBytes", 1024);
+    private static final int LEVEL = Integer.getInteger("crowdtruth.compression.level", 6);
+    private static final int POOL_SIZE = Integer.getInteger("crowdtruth.compression.poolSize",
+            Runtime.getRuntime().availableProcessors() * 2);
+    // Keep the compressed forms of cached responses so hot sources are compressed once.
+    private static final boolean CACHE_ENCODED =
+            Boolean.parseBoolean(System.getProperty("crowdtruth.compression.cacheEncoded", "true"));
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    private static final BlockingQueue<Deflater> RAW_DEFLATERS = new ArrayBlockingQueue<>(Math.max(1, POOL_SIZE));
+    private static final BlockingQueue<Deflater> ZLIB_DEFLATERS = new ArrayBlockingQueue<>(Math.max(1, POOL_SIZE));
+
+    private static final LongAdder GZIP_RESPONSES = new LongAdder();
+    private static final LongAdder DEFLATE_RESPONSES = new LongAdder();
+    private static final LongAdder BYTES_IN = new LongAdder();
+    private static final LongAdder BYTES_OUT = new LongAdder();
+    private static final LongAdder DEFLATERS_CREATED = new LongAdder();
+
+    private Compression() {
+    }
+
+    // The encoding to use for a body of this length, or null to send it as is.
+    public static Encoding negotiate(HttpExchange exchange, long length) {
+        return negotiate(exchange.getRequestHeaders().getFirst("Accept-Encoding"), length);
+    }
+
+    // As above, given the request's Accept-Encoding header.
+    static Encoding negotiate(String header, long length) {
+        if (length >= 0 && length < MIN_BYTES) {
+            return null;
+        }
+        if (header == null || header.isEmpty()) {
+            return null;
+        }
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for (String part : header.split(",")) {
+            String[] params = part.split(";");
+            String coding = params[0].trim().toLowerCase();
+            double q = 1.0;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=") || param.startsWith("Q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0.0;
+                    }
+                }
+            }
+            if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                gzip = q;
+            } else if (coding.equals("deflate")) {
+                deflate = q;
+            } else if (coding.equals("*")) {
+                any = q;
+            }
+        }
+        // An explicit q for a coding overrides "*"; gzip wins ties.
+        gzip = gzip >= 0 ? gzip : any;
+        deflate = deflate >= 0 ? deflate : any;
+        if (gzip > 0 && gzip >= deflate) {
+            return Encoding.GZIP;
+        }
+        return deflate > 0 ? Encoding.DEFLATE : null;
+    }
+
+    // Whether a body of this length could be sent compressed, so caches must key on Accept-Encoding.
+    public static boolean isCompressible(long length) {
+        return length < 0 || length >= MIN_BYTES;
+    }
+
+    // Content-Encoding and Vary for a response about to be sent with encoding (null for identity).
+    public static void setHeaders(HttpExchange exchange, Encoding encoding) {
+        exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+        if (encoding != null) {
+            exchange.getResponseHeaders().set("Content-Encoding", encoding.token());
+            (encoding == Encoding.GZIP ? GZIP_RESPONSES : DEFLATE_RESPONSES).increment();
+        }
+    }
+
+    // Strong ETags must differ between encodings of the same resource: "a.3" becomes "a.3-gzip".
+    public static String etagFor(String etag, Encoding encoding) {
+        if (encoding == null || etag == null || !etag.endsWith("\"")) {
+            return etag;
+        }
+        return etag.substring(0, etag.length() - 1) + "-" + encoding.token() + "\"";
+    }
+
+    public static byte[] compress(byte[] body, Encoding encoding) {
+        return compress(body, 0, body.length, encoding);
+    }
+
+    public static byte[] compress(byte[] body, int offset, int length, Encoding encoding) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(length / 4 + 64);
+        try (OutputStream out = wrap(buffer, encoding)) {
+            out.write(body, offset, length);
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw.
+            throw new IllegalStateException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    // Compressing stream over out; close() finishes the encoding, closes out and returns the deflater.
+    public static OutputStream wrap(OutputStream out, Encoding encoding) throws IOException {
+        boolean gzip = encoding == Encoding.GZIP;
+        BlockingQueue<Deflater> pool = gzip ? RAW_DEFLATERS : ZLIB_DEFLATERS;
+        Deflater deflater = pool.poll();
+        if (deflater == null) {
+            deflater = new Deflater(LEVEL, gzip);
+            DEFLATERS_CREATED.increment();
+        }
+        return new PooledDeflaterStream(out, deflater, pool, gzip);
+    }
+
+    public static long getGzipResponses() {
+        return GZIP_RESPONSES.sum();
+    }
+
+    public static long getDeflateResponses() {
+        return DEFLATE_RESPONSES.sum();
+    }
+
+    public static long getBytesIn() {
+        return BYTES_IN.sum();
+    }
+
+    public static long getBytesOut() {
+        return BYTES_OUT.sum();
+    }
+
+    public static long getDeflatersCreated() {
+        return DEFLATERS_CREATED.sum();
+    }
+
+    /**
+     * A response body that remembers its compressed forms, for bodies that
+     * are sent more than once (the source caches).
+     */
+    public static final class Body {
+        private final byte[] identity;
+        private volatile byte[] gzip;
+        private volatile byte[] deflate;
+
+        public Body(byte[] identity) {
+            this.identity = identity;
+        }
+
+        public byte[] bytes() {
+            return identity;
+        }
+
+        // Two threads may both compress on first use; either result is fine to keep.
+        public byte[] encoded(Encoding encoding) {
+            if (encoding == null) {
+                return identity;
+            }
+            byte[] cached = encoding == Encoding.GZIP ? gzip : deflate;
+            if (cached != null) {
+                return cached;
+            }
+            byte[] compressed = compress(identity, encoding);
+            if (CACHE_ENCODED) {
+                if (encoding == Encoding.GZIP) {
+                    gzip = compressed;
+                } else {
+                    deflate = compressed;
+                }
+            }
+            return compressed;
+        }
+    }
+
+    private static final class PooledDeflaterStream extends DeflaterOutputStream {
+        private final BlockingQueue<Deflater> pool;
+        private final CRC32 crc;
+        private boolean done;
+        private boolean released;
+
+        private PooledDeflaterStream(OutputStream out, Deflater deflater, BlockingQueue<Deflater> pool, boolean gzip)
+                throws IOException {
+            super(out, deflater, BUFFER_SIZE);
+            this.pool = pool;
+            this.crc = gzip ? new CRC32() : null;
+            if (gzip) {
+                out.write(GZIP_HEADER);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            if (crc != null) {
+                crc.update(b, off, len);
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (done) {
+                return;
+            }
+            super.finish();
+            done = true;
+            if (crc != null) {
+                writeIntLE((int) crc.getValue());
+                writeIntLE((int) def.getBytesRead());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (released) {
+                return;
+            }
+            released = true;
+            try {
+                finish();
+                out.close();
+            } finally {
+                BYTES_IN.add(def.getBytesRead());
+                BYTES_OUT.add(def.getBytesWritten() + (crc != null ? GZIP_HEADER.length + 8 : 0));
+                def.reset();
+                if (!pool.offer(def)) {
+                    def.end();
+                }
+            }
+        }
+
+        private void writeIntLE(int value) throws IOException {
+            out.write(value & 0xff);
+            out.write((value >>> 8) & 0xff);
+            out.write((value >>> 16) & 0xff);
+            out.write((value >>> 24) & 0xff);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package edu.ncsu.hacknc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/*
+ * Compression check. Round-trips bodies of several sizes and shapes through
+ * gzip and deflate, both whole and streamed in pieces, and decodes them with
+ * the JDK's own GZIPInputStream and InflaterInputStream, so the hand-written
+ * gzip header, CRC and length trailer are checked against a reference.
+ * Checks that pooled deflaters are reused rather than created per body, and
+ * that Accept-Encoding negotiation honours q values, q=0 included. Exits 1 on
+ * failure.
+ */
+public class CompressionTest {
+
+	private static final int BIG = 1 << 20;
+
+	private static final List<String> failures = new ArrayList<>();
+
+	public static void main(String[] args) throws Exception {
+		Random random = new Random(42);
+		byte[] noise = new byte[64 * 1024];
+		random.nextBytes(noise);
+		StringBuilder json = new StringBuilder("[");
+		while (json.length() < BIG) {
+			json.append("{\"postId\":\"").append(random.nextLong()).append("\",\"rating\":").append(random.nextInt(5))
+					.append(",\"comment\":\"Same words, again and again\"},");
+		}
+		json.setCharAt(json.length() - 1, ']');
+		byte[] text = json.toString().getBytes(StandardCharsets.UTF_8);
+
+		for (Compression.Encoding encoding : Compression.Encoding.values()) {
+			String name = encoding.token();
+			roundTrip(name + " empty body", new byte[0], encoding);
+			roundTrip(name + " one byte", new byte[] { 'x' }, encoding);
+			roundTrip(name + " incompressible body", noise, encoding);
+			roundTrip(name + " 1 MiB JSON", text, encoding);
+			streamed(name + " streamed in pieces", text, encoding);
+			byte[] slice = Compression.compress(text, 100, 5000, encoding);
+			check(name + " slice", Arrays.equals(decode(slice, encoding), Arrays.copyOfRange(text, 100, 5100)));
+
+			Compression.Body body = new Compression.Body(text);
+			byte[] first = body.encoded(encoding);
+			check(name + " cached body decodes", Arrays.equals(decode(first, encoding), text));
+			check(name + " cached body reused", body.encoded(encoding) == first);
+		}
+		check("compressible JSON shrinks", Compression.compress(text, Compression.Encoding.GZIP).length < text.length / 4);
+
+		long created = Compression.getDeflatersCreated();
+		for (int i = 0; i < 200; i++) {
+			Compression.compress(text, 0, 4096, i % 2 == 0 ? Compression.Encoding.GZIP : Compression.Encoding.DEFLATE);
+		}
+		check("deflaters reused", Compression.getDeflatersCreated() - created <= 2);
+
+		negotiate("gzip", Compression.Encoding.GZIP);
+		negotiate("deflate", Compression.Encoding.DEFLATE);
+		negotiate("GZIP", Compression.Encoding.GZIP);
+		negotiate("x-gzip", Compression.Encoding.GZIP);
+		negotiate("gzip, deflate, br", Compression.Encoding.GZIP);
+		negotiate("deflate, gzip", Compression.Encoding.GZIP);
+		negotiate("gzip;q=0.5, deflate;q=0.8", Compression.Encoding.DEFLATE);
+		negotiate("gzip; q=0.8, deflate;q=0.8", Compression.Encoding.GZIP);
+		negotiate("gzip;q=0, deflate", Compression.Encoding.DEFLATE);
+		negotiate("gzip;q=0", null);
+		negotiate("gzip;q=0.0, deflate;q=0", null);
+		negotiate("gzip;Q=0", null);
+		negotiate("gzip;q=oops", null);
+		negotiate("*", Compression.Encoding.GZIP);
+		negotiate("*;q=0", null);
+		negotiate("*;q=0.5, gzip;q=0", Compression.Encoding.DEFLATE);
+		negotiate("gzip;q=0, *", Compression.Encoding.DEFLATE);
+		negotiate("identity", null);
+		negotiate("br", null);
+		negotiate("", null);
+		negotiate(null, null);
+		check("short body sent as is", Compression.negotiate("gzip", 10) == null);
+		check("unknown length compressed", Compression.negotiate("gzip", -1) == Compression.Encoding.GZIP);
+
+		check("etag per encoding", "\"a.3-gzip\"".equals(Compression.etagFor("\"a.3\"", Compression.Encoding.GZIP))
+				&& "\"a.3\"".equals(Compression.etagFor("\"a.3\"", null)));
+
+		if (!failures.isEmpty()) {
+			System.out.println(failures.size() + " compression check(s) failed");
+			System.exit(1);
+		}
+		System.out.println("Compression checks passed");
+	}
+
+	private static void roundTrip(String name, byte[] body, Compression.Encoding encoding) throws IOException {
+		check(name, Arrays.equals(decode(Compression.compress(body, encoding), encoding), body));
+	}
+
+	// Writes through wrap() in uneven pieces, single bytes included, as a streamed response does.
+	private static void streamed(String name, byte[] body, Compression.Encoding encoding) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		Random random = new Random(7);
+		try (OutputStream out = Compression.wrap(buffer, encoding)) {
+			int pos = 0;
+			while (pos < body.length) {
+				if (random.nextInt(4) == 0) {
+					out.write(body[pos++]);
+				} else {
+					int length = Math.min(body.length - pos, random.nextInt(20_000));
+					out.write(body, pos, length);
+					pos += length;
+				}
+			}
+		}
+		check(name, Arrays.equals(decode(buffer.toByteArray(), encoding), body));
+	}
+
+	private static byte[] decode(byte[] compressed, Compression.Encoding encoding) throws IOException {
+		InputStream in = new ByteArrayInputStream(compressed);
+		try (InputStream decoded = encoding == Compression.Encoding.GZIP ? new GZIPInputStream(in)
+				: new InflaterInputStream(in)) {
+			return decoded.readAllBytes();
+		}
+	}
+
+	private static void negotiate(String header, Compression.Encoding expected) {
+		Compression.Encoding actual = Compression.negotiate(header, 4096);
+		if (actual != expected) {
+			System.out.println("     ! " + header + " -> " + actual);
+		}
+		check("Accept-Encoding: " + header, actual == expected);
+	}
+
+	private static void check(String name, boolean ok) {
+		System.out.printf("%-4s %s%n", ok ? "ok" : "FAIL", name);
+		if (!ok) {
+			failures.add(name);
+		}
+	}
+}
@@ -0,0 +1,345 @@
+package edu.ncsu.hacknc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool of pre-opened SQLite read connections plus a single dedicated
+ * writer connection. Pragmas are applied once when a physical connection is
+ * opened; callers get a proxy whose close() hands the connection back.
+ *
+ * Borrowers queue on fair semaphores, so however many request threads exist
+ * (including virtual threads) at most readPoolSize readers and one writer
+ * touch SQLite at a time, served in arrival order.
+ */
+public final class ConnectionPool implements AutoCloseable {
+
+    private static final String[] CONNECTION_PRAGMAS = {
+            "PRAGMA journal_mode = WAL",
+            "PRAGMA synchronous = NORMAL",
+            "PRAGMA foreign_keys = ON",
+            "PRAGMA busy_timeout = 5000",
+            "PRAGMA mmap_size = 268435456", // 256MB
+            "PRAGMA cache_size = -16000", // 16MB
+            "PRAGMA temp_store = MEMORY"
+    };
+
+    private final String url;
+    private final int readPoolSize;
+    private final long borrowTimeoutMs;
+
+    private final BlockingQueue<Connection> idleReaders;
+    private final List<Connection> allReaders = new ArrayList<>();
+    private final Connection writer;
+    private final Semaphore readerPermits;
+    private final Semaphore writerPermit = new Semaphore(1, true);
+
+    private final AtomicInteger activeReaders = new AtomicInteger();
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder borrowWaitNanos = new LongAdder();
+    private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+    private final LongAdder borrowTimeouts = new LongAdder();
+    private final LatencyHistogram borrowWait = new LatencyHistogram();
+
+    private volatile boolean closed;
+
+    public ConnectionPool(String url, int readPoolSize, long borrowTimeoutMs) throws SQLException {
+        if (readPoolSize < 1) {
+            throw new IllegalArgumentException("Read pool size must be at least 1");
+        }
+        this.url = url;
+        this.readPoolSize = readPoolSize;
+        this.borrowTimeoutMs = borrowTimeoutMs;
+        this.idleReaders = new ArrayBlockingQueue<>(readPoolSize);
+        this.readerPermits = new Semaphore(readPoolSize, true);
+
+        this.writer = open(false);
+        try {
+            for (int i = 0; i < readPoolSize; i++) {
+                Connection reader = open(true);
+                allReaders.add(reader);
+                idleReaders.add(reader);
+            }
+        } catch (SQLException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public Connection borrowReader() throws SQLException {
+        ensureOpen();
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = readerPermits.tryAcquire(borrowTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a database connection", e);
+        }
+        recordWait(System.nanoTime() - start);
+        if (!acquired) {
+            borrowTimeouts.increment();
+            throw new SQLException("Timed out waiting for a database connection");
+        }
+        Connection physical = idleReaders.poll();
+        if (physical == null) {
+            // A broken reader could not be replaced; give the permit back rather than leak it.
+            readerPermits.release();
+            throw new SQLException("No usable database connection");
+        }
+        activeReaders.incrementAndGet();
+        return wrap(physical, false);
+    }
+
+    public Connection borrowWriter() throws SQLException {
+        ensureOpen();
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = writerPermit.tryAcquire(borrowTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for the database writer", e);
+        }
+        recordWait(System.nanoTime() - start);
+        if (!acquired) {
+            borrowTimeouts.increment();
+            throw new SQLException("Timed out waiting for the database writer");
+        }
+        return wrap(writer, true);
+    }
+
+    public Metrics metrics() {
+        return new Metrics(readPoolSize, activeReaders.get(), idleReaders.size(),
+                writerPermit.availablePermits() == 0, readerPermits.getQueueLength() + writerPermit.getQueueLength(),
+                borrowCount.sum(), borrowWaitNanos.sum(), maxBorrowWaitNanos.get(), borrowTimeouts.sum(),
+                borrowWait.snapshot());
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (Connection reader : allReaders) {
+            closeQuietly(reader);
+        }
+        allReaders.clear();
+        idleReaders.clear();
+        if (writer != null) {
+            closeQuietly(writer);
+        }
+    }
+
+    private Connection open(boolean readOnly) throws SQLException {
+        Connection conn = DriverManager.getConnection(url);
+        try (Statement stmt = conn.createStatement()) {
+            for (String pragma : CONNECTION_PRAGMAS) {
+                stmt.execute(pragma);
+            }
+            if (readOnly) {
+                stmt.execute("PRAGMA query_only = ON");
+            }
+        } catch (SQLException e) {
+            closeQuietly(conn);
+            throw e;
+        }
+        return conn;
+    }
+
+    private void release(Connection physical, boolean isWriter) {
+        try {
+            if (!physical.isClosed() && !physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            // The connection is reset below if it is no longer usable.
+        }
+
+        if (isWriter) {
+            writerPermit.release();
+            return;
+        }
+
+        activeReaders.decrementAndGet();
+        Connection usable = physical;
+        try {
+            if (physical.isClosed()) {
+                usable = replaceReader(physical);
+            }
+        } catch (SQLException e) {
+            usable = replaceReader(physical);
+        }
+        if (usable != null && !closed) {
+            idleReaders.offer(usable);
+        }
+        readerPermits.release();
+    }
+
+    private synchronized Connection replaceReader(Connection broken) {
+        allReaders.remove(broken);
+        closeQuietly(broken);
+        if (closed) {
+            return null;
+        }
+        try {
+            Connection fresh = open(true);
+            allReaders.add(fresh);
+            return fresh;
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+
+    private void recordWait(long nanos) {
+        borrowCount.increment();
+        borrowWaitNanos.add(nanos);
+        maxBorrowWaitNanos.accumulateAndGet(nanos, Math::max);
+        borrowWait.recordNanos(nanos);
+    }
+
+    private void ensureOpen() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+    }
+
+    private Connection wrap(Connection physical, boolean isWriter) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, new PooledHandler(physical, isWriter));
+    }
+
+    private static void closeQuietly(Connection conn) {
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            // Ignore: nothing useful to do while shutting a connection down.
+        }
+    }
+
+    private final class PooledHandler implements InvocationHandler {
+        private final Connection physical;
+        private final boolean isWriter;
+        private boolean returned;
+
+        private PooledHandler(Connection physical, boolean isWriter) {
+            this.physical = physical;
+            this.isWriter = isWriter;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+            case "close":
+                if (!returned) {
+                    returned = true;
+                    release(physical, isWriter);
+                }
+                return null;
+            case "isClosed":
+                return returned || physical.isClosed();
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "PooledConnection[" + (isWriter ? "writer" : "reader") + "]";
+            default:
+                if (returned) {
+                    throw new SQLException("Connection has been returned to the pool");
+                }
+                try {
+                    return method.invoke(physical, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        }
+    }
+
+    public static final class Metrics {
+        private final int readPoolSize;
+        private final int activeReaders;
+        private final int idleReaders;
+        private final boolean writerActive;
+        private final int waitingBorrowers;
+        private final long borrowCount;
+        private final long borrowWaitNanos;
+        private final long maxBorrowWaitNanos;
+        private final long borrowTimeouts;
+        private final LatencyHistogram.Snapshot borrowWait;
+
+        private Metrics(int readPoolSize, int activeReaders, int idleReaders, boolean writerActive,
+                int waitingBorrowers, long borrowCount, long borrowWaitNanos, long maxBorrowWaitNanos,
+                long borrowTimeouts, LatencyHistogram.Snapshot borrowWait) {
+            this.readPoolSize = readPoolSize;
+            this.activeReaders = activeReaders;
+            this.idleReaders = idleReaders;
+            this.writerActive = writerActive;
+            this.waitingBorrowers = waitingBorrowers;
+            this.borrowCount = borrowCount;
+            this.borrowWaitNanos = borrowWaitNanos;
+            this.maxBorrowWaitNanos = maxBorrowWaitNanos;
+            this.borrowTimeouts = borrowTimeouts;
+            this.borrowWait = borrowWait;
+        }
+
+        public int getReadPoolSize() {
+            return readPoolSize;
+        }
+
+        public int getActiveReaders() {
+            return activeReaders;
+        }
+
+        public int getIdleReaders() {
+            return idleReaders;
+        }
+
+        public boolean isWriterActive() {
+            return writerActive;
+        }
+
+        public int getWaitingBorrowers() {
+            return waitingBorrowers;
+        }
+
+        public long getBorrowCount() {
+            return borrowCount;
+        }
+
+        public long getBorrowWaitNanos() {
+            return borrowWaitNanos;
+        }
+
+        public long getMaxBorrowWaitNanos() {
+            return maxBorrowWaitNanos;
+        }
+
+        public long getBorrowTimeouts() {
+            return borrowTimeouts;
+        }
+
+        public LatencyHistogram.Snapshot getBorrowWait() {
+            return borrowWait;
+        }
+
+        public double getAverageBorrowWaitMillis() {
+            return borrowCount == 0 ? 0.0 : borrowWaitNanos / (double) borrowCount / 1_000_000.0;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package edu.ncsu.hacknc;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque keyset pagination tokens. A cursor is the sort key of the last row
+ * on a page, so the next page starts with an index seek instead of an OFFSET
+ * walk.
+ */
+public final class Cursor {
+
+    private static final char SEPARATOR = '\n';
+    private static final int MAX_TOKEN_LENGTH = 512;
+
+    private Cursor() {
+    }
+
+    public static String encode(String... parts) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) {
+                sb.append(SEPARATOR);
+            }
+            sb.append(parts[i]);
+        }
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Returns null if the token is malformed or does not have the expected shape.
+    public static String[] decode(String token, int expectedParts) {
+        if (token == null || token.isEmpty() || token.length() > MAX_TOKEN_LENGTH) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split(String.valueOf(SEPARATOR), -1);
+            return parts.length == expectedParts ? parts : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public static Long parseLong(String raw) {
+        try {
+            return Long.parseLong(raw);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -1,25 +1,110 @@
 package edu.ncsu.hacknc;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public final class Database {
 
-    private static final String DB_URL = "jdbc:sqlite:crowdtruth.db";
+    private static final Logger LOG = LoggerFactory.getLogger(Database.class);
+
+    private static final String DEFAULT_DB_URL = "jdbc:sqlite:crowdtruth.db";
+    private static final int READ_POOL_SIZE = Integer.getInteger("crowdtruth.db.readPoolSize", 8);
+    private static final long BORROW_TIMEOUT_MS = Long.getLong("crowdtruth.db.borrowTimeoutMs", 5000L);
+
+    // Sources, posts and votes are keyed by time-ordered 64-bit ids (see Ids), stored as the rowid.
+    private static final String SOURCES_COLUMNS = "(" +
+            "id INTEGER PRIMARY KEY, " +
+            "url TEXT UNIQUE NOT NULL, " +
+            "url_key INTEGER, " +
+            "title TEXT)";
+
+    private static final String POSTS_COLUMNS = "(" +
+            "id INTEGER PRIMARY KEY, " +
+            "source_id INTEGER NOT NULL, " +
+            "user_id TEXT NOT NULL, " +
+            "title TEXT NOT NULL, " +
+            "comment TEXT NOT NULL, " +
+            "created_at INTEGER NOT NULL, " +
+            "FOREIGN KEY(source_id) REFERENCES sources(id), " +
+            "FOREIGN KEY(user_id) REFERENCES users(id))";
+
+    private static final String VOTES_COLUMNS = "(" +
+            "id INTEGER PRIMARY KEY, " +
+            "post_id INTEGER NOT NULL, " +
+            "user_id TEXT NOT NULL, " +
+            "agree INTEGER NOT NULL, " +
+            "rating INTEGER NOT NULL, " +
+            "created_at INTEGER NOT NULL, " +
+            "UNIQUE(post_id, user_id), " +
+            "FOREIGN KEY(post_id) REFERENCES posts(id), " +
+            "FOREIGN KEY(user_id) REFERENCES users(id))";
+
+    private static final String SOURCE_STATS_COLUMNS = "(" +
+            "source_id INTEGER PRIMARY KEY, " +
+            "rating_sum INTEGER NOT NULL DEFAULT 0, " +
+            "vote_count INTEGER NOT NULL DEFAULT 0, " +
+            "agree_count INTEGER NOT NULL DEFAULT 0, " +
+            "disagree_count INTEGER NOT NULL DEFAULT 0, " +
+            "post_count INTEGER NOT NULL DEFAULT 0, " +
+            // Bumped by every post, vote or title change; GET /sources serves it as the ETag.
+            "version INTEGER NOT NULL DEFAULT 0, " +
+            "FOREIGN KEY(source_id) REFERENCES sources(id)) WITHOUT ROWID";
+
+    private static final String POST_STATS_COLUMNS = "(" +
+            "post_id INTEGER PRIMARY KEY, " +
+            "rating_sum INTEGER NOT NULL DEFAULT 0, " +
+            "vote_count INTEGER NOT NULL DEFAULT 0, " +
+            "agree_count INTEGER NOT NULL DEFAULT 0, " +
+            "disagree_count INTEGER NOT NULL DEFAULT 0, " +
+            "FOREIGN KEY(post_id) REFERENCES posts(id)) WITHOUT ROWID";
+
+    private static ConnectionPool pool;
 
     private Database() {
     }
 
+    // Pooled read-only connection; close() returns it to the pool.
     public static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(DB_URL);
+        return pool().borrowReader();
     }
 
-    public static void init() throws SQLException {
-        try (Connection conn = getConnection(); Statement stmt = conn.createStatement()) {
-            stmt.execute("PRAGMA foreign_keys = ON");
+    // The single writer connection; callers hold it exclusively until close().
+    public static Connection getWriteConnection() throws SQLException {
+        return pool().borrowWriter();
+    }
 
+    public static ConnectionPool.Metrics getPoolMetrics() throws SQLException {
+        return pool().metrics();
+    }
+
+    public static synchronized void shutdown() {
+        if (pool != null) {
+            pool.close();
+            pool = null;
+        }
+    }
+
+    private static synchronized ConnectionPool pool() throws SQLException {
+        if (pool == null) {
+            // Read on every open so tools can point a fresh pool at another file after shutdown().
+            pool = new ConnectionPool(System.getProperty("crowdtruth.db.url", DEFAULT_DB_URL),
+                    READ_POOL_SIZE, BORROW_TIMEOUT_MS);
+        }
+        return pool;
+    }
+
+    public static void init() throws SQLException {
+        try (Connection conn = getWriteConnection(); Statement stmt = conn.createStatement()) {
                         boolean hasLegacyPassword = hasColumn(conn, "users", "password");
                         boolean hasHash = hasColumn(conn, "users", "password_hash");
                         if (hasLegacyPassword && !hasHash) {
@@ -35,31 +120,9 @@ public final class Database {
                         tryAddColumn(stmt, "users", "password_hash TEXT");
                         tryAddColumn(stmt, "users", "password_salt TEXT");
 
-            stmt.execute("CREATE TABLE IF NOT EXISTS sources (" +
-                    "id TEXT PRIMARY KEY, " +
-                    "url TEXT UNIQUE NOT NULL, " +
-                    "title TEXT)");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS posts (" +
-                    "id TEXT PRIMARY KEY, " +
-                    "source_id TEXT NOT NULL, " +
-                    "user_id TEXT NOT NULL, " +
-                    "title TEXT NOT NULL, " +
-                    "comment TEXT NOT NULL, " +
-                    "created_at INTEGER NOT NULL, " +
-                    "FOREIGN KEY(source_id) REFERENCES sources(id), " +
-                    "FOREIGN KEY(user_id) REFERENCES users(id))");
-
-            stmt.execute("CREATE TABLE IF NOT EXISTS votes (" +
-                    "id TEXT PRIMARY KEY, " +
-                    "post_id TEXT NOT NULL, " +
-                    "user_id TEXT NOT NULL, " +
-                    "agree INTEGER NOT NULL, " +
-                    "rating INTEGER NOT NULL, " +
-                    "created_at INTEGER NOT NULL, " +
-                    "UNIQUE(post_id, user_id), " +
-                    "FOREIGN KEY(post_id) REFERENCES posts(id), " +
-                    "FOREIGN KEY(user_id) REFERENCES users(id))");
+            stmt.execute("CREATE TABLE IF NOT EXISTS sources " + SOURCES_COLUMNS);
+            stmt.execute("CREATE TABLE IF NOT EXISTS posts " + POSTS_COLUMNS);
+            stmt.execute("CREATE TABLE IF NOT EXISTS votes " + VOTES_COLUMNS);
 
             stmt.execute("CREATE TABLE IF NOT EXISTS tokens (" +
                     "token TEXT PRIMARY KEY, " +
@@ -67,9 +130,259 @@ public final class Database {
                     "created_at INTEGER NOT NULL, " +
                     "FOREIGN KEY(user_id) REFERENCES users(id))");
 
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_sources_url ON sources(url)");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_posts_source ON posts(source_id)");
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_votes_post ON votes(post_id)");
+            boolean urlsCanonical = hasColumn(conn, "sources", "url_key");
+            boolean compactIds = !"TEXT".equalsIgnoreCase(columnType(conn, "posts", "id"));
+            if (!urlsCanonical || !compactIds) {
+                upgradeSchema(conn, urlsCanonical, compactIds);
+            }
+
+            boolean aggregatesExist = hasTable(conn, "source_stats") && hasTable(conn, "post_stats");
+            stmt.execute("CREATE TABLE IF NOT EXISTS source_stats " + SOURCE_STATS_COLUMNS);
+            stmt.execute("CREATE TABLE IF NOT EXISTS post_stats " + POST_STATS_COLUMNS);
+            if (!hasColumn(conn, "source_stats", "version")) {
+                stmt.execute("ALTER TABLE source_stats ADD COLUMN version INTEGER NOT NULL DEFAULT 0");
+            }
+
+            boolean searchIndexExists = hasTable(conn, "posts_fts") && hasTable(conn, "sources_fts");
+            SearchIndex.createTables(stmt);
+
+            // Lookups go through the 8-byte url_key; the UNIQUE index on url only backs the upsert.
+            stmt.execute("DROP INDEX IF EXISTS idx_sources_url");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_sources_url_key ON sources(url_key)");
+            // Post lists filter on source or author and sort newest first, so both keys carry created_at and
+            // the rows come off the index already ordered. Vote lookups by post ride on UNIQUE(post_id, user_id).
+            stmt.execute("DROP INDEX IF EXISTS idx_posts_source");
+            stmt.execute("DROP INDEX IF EXISTS idx_votes_post");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_posts_source_created ON posts(source_id, created_at)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_posts_user_created ON posts(user_id, created_at)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_votes_user ON votes(user_id)");
+
+            if (!aggregatesExist) {
+                Aggregates.rebuild(conn);
+            }
+            if (!searchIndexExists) {
+                SearchIndex.rebuild(conn);
+            }
+
+            try (var rs = stmt.executeQuery("SELECT MAX((SELECT MAX(id) FROM sources), " +
+                    "(SELECT MAX(id) FROM posts), (SELECT MAX(id) FROM votes))")) {
+                if (rs.next()) {
+                    Ids.observe(rs.getLong(1));
+                }
+            }
+        }
+    }
+
+    /**
+     * Brings sources, posts and votes up from an older layout in a single
+     * transaction, so an upgrade that fails leaves the old layout as it was and
+     * is tried again on the next start.
+     *
+     * Foreign keys are off during the upgrade, since the id migration's new
+     * tables reference parents that only take their final names at the end;
+     * the upgraded tables are checked as a whole before the commit instead.
+     * The aggregate and search tables are derived from the base tables, so
+     * they are dropped here and the caller rebuilds them when it finds them
+     * missing.
+     */
+    private static void upgradeSchema(Connection conn, boolean urlsCanonical, boolean compactIds)
+            throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        setForeignKeys(conn, false);
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            if (!urlsCanonical) {
+                canonicalizeSourceUrls(conn);
+            }
+            if (!compactIds) {
+                migrateToIntegerIds(conn);
+            }
+            for (String table : new String[] { "source_stats", "post_stats", "posts_fts", "sources_fts" }) {
+                stmt.execute("DROP TABLE IF EXISTS " + table);
+            }
+            checkForeignKeys(stmt, "sources", "posts", "votes");
+            conn.commit();
+        } catch (SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+            setForeignKeys(conn, true);
+        }
+    }
+
+    /**
+     * Upgrade step from random UUID TEXT keys to {@link Ids}: every
+     * source, post and vote gets a time-ordered INTEGER id (sources take the
+     * time of their first post) and the tables are rebuilt with INTEGER keys
+     * and foreign keys. Posts or votes whose source, post or author no longer
+     * exists cannot be carried over and are dropped. Runs inside
+     * {@link #upgradeSchema}.
+     */
+    private static void migrateToIntegerIds(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            long now = System.currentTimeMillis();
+            assignIds(conn, stmt, "source_ids", "SELECT s.id, " +
+                    "COALESCE((SELECT MIN(p.created_at) FROM posts p WHERE p.source_id = s.id), " + now + ") AS t " +
+                    "FROM sources s ORDER BY t, s.rowid");
+            assignIds(conn, stmt, "post_ids", "SELECT id, created_at AS t FROM posts ORDER BY created_at, rowid");
+            assignIds(conn, stmt, "vote_ids", "SELECT id, created_at AS t FROM votes ORDER BY created_at, rowid");
+
+            stmt.execute("CREATE TABLE sources_v2 " + SOURCES_COLUMNS);
+            stmt.executeUpdate("INSERT INTO sources_v2 (id, url, url_key, title) " +
+                    "SELECT m.new, s.url, s.url_key, s.title FROM sources s JOIN temp.source_ids m ON m.old = s.id");
+            stmt.execute("CREATE TABLE posts_v2 " + POSTS_COLUMNS);
+            int posts = stmt.executeUpdate("INSERT INTO posts_v2 (id, source_id, user_id, title, comment, created_at) " +
+                    "SELECT pm.new, sm.new, p.user_id, p.title, p.comment, p.created_at FROM posts p " +
+                    "JOIN temp.post_ids pm ON pm.old = p.id JOIN temp.source_ids sm ON sm.old = p.source_id " +
+                    "JOIN users u ON u.id = p.user_id");
+            stmt.execute("CREATE TABLE votes_v2 " + VOTES_COLUMNS);
+            int votes = stmt.executeUpdate("INSERT INTO votes_v2 (id, post_id, user_id, agree, rating, created_at) " +
+                    "SELECT vm.new, pm.new, v.user_id, v.agree, v.rating, v.created_at FROM votes v " +
+                    "JOIN temp.vote_ids vm ON vm.old = v.id JOIN temp.post_ids pm ON pm.old = v.post_id " +
+                    "JOIN users u ON u.id = v.user_id " +
+                    "WHERE pm.new IN (SELECT id FROM posts_v2)");
+            long droppedPosts = count(stmt, "posts") - posts;
+            long droppedVotes = count(stmt, "votes") - votes;
+
+            for (String table : new String[] { "votes", "posts", "sources" }) {
+                stmt.execute("DROP TABLE " + table);
+            }
+            for (String table : new String[] { "sources", "posts", "votes" }) {
+                stmt.execute("ALTER TABLE " + table + "_v2 RENAME TO " + table);
+            }
+            for (String map : new String[] { "source_ids", "post_ids", "vote_ids" }) {
+                stmt.execute("DROP TABLE temp." + map);
+            }
+            if (droppedPosts > 0 || droppedVotes > 0) {
+                LOG.warn("Id migration drops {} orphaned post(s) and {} orphaned vote(s)", droppedPosts, droppedVotes);
+            }
+        }
+    }
+
+    // A no-op inside a transaction, so call it before the transaction starts and after it ends.
+    private static void setForeignKeys(Connection conn, boolean on) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA foreign_keys = " + (on ? "ON" : "OFF"));
+        }
+    }
+
+    private static void checkForeignKeys(Statement stmt, String... tables) throws SQLException {
+        for (String table : tables) {
+            try (ResultSet rs = stmt.executeQuery("PRAGMA foreign_key_check(" + table + ")")) {
+                if (rs.next()) {
+                    throw new SQLException("Migration left " + table + " row " + rs.getLong("rowid") +
+                            " without its " + rs.getString("parent") + " row");
+                }
+            }
+        }
+    }
+
+    // Fills temp.<mapTable> with old id -> new id for the rows of select (columns id, t) in order.
+    private static void assignIds(Connection conn, Statement stmt, String mapTable, String select)
+            throws SQLException {
+        stmt.execute("CREATE TEMP TABLE " + mapTable + " (old TEXT PRIMARY KEY, new INTEGER NOT NULL)");
+        try (PreparedStatement insert = conn.prepareStatement(
+                        "INSERT INTO temp." + mapTable + " (old, new) VALUES (?, ?)");
+                Statement query = conn.createStatement();
+                ResultSet rs = query.executeQuery(select)) {
+            long id = 0;
+            int pending = 0;
+            while (rs.next()) {
+                id = Ids.after(id, rs.getLong("t"));
+                insert.setString(1, rs.getString("id"));
+                insert.setLong(2, id);
+                insert.addBatch();
+                if (++pending == 10_000) {
+                    insert.executeBatch();
+                    pending = 0;
+                }
+            }
+            insert.executeBatch();
+        }
+    }
+
+    private static long count(Statement stmt, String table) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Upgrade step for databases created before URL canonicalization:
+     * adds url_key, rewrites every source URL to its canonical form and merges
+     * sources that collapse onto the same URL into the oldest one, moving their
+     * posts across. Sources whose stored URL no longer validates keep it as is.
+     * Runs inside {@link #upgradeSchema}.
+     */
+    private static void canonicalizeSourceUrls(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ALTER TABLE sources ADD COLUMN url_key INTEGER");
+
+            List<String[]> sources = new ArrayList<>();
+            try (ResultSet rs = stmt.executeQuery("SELECT id, url, title FROM sources ORDER BY rowid")) {
+                while (rs.next()) {
+                    sources.add(new String[] { rs.getString("id"), rs.getString("url"), rs.getString("title") });
+                }
+            }
+
+            Map<String, String> survivorByUrl = new HashMap<>();
+            Map<String, Boolean> titledById = new HashMap<>();
+            List<String[]> rewrites = new ArrayList<>();
+            try (PreparedStatement movePosts = conn.prepareStatement(
+                            "UPDATE posts SET source_id = ? WHERE source_id = ?");
+                    PreparedStatement fillTitle = conn.prepareStatement(
+                            "UPDATE sources SET title = ? WHERE id = ?");
+                    PreparedStatement deleteSource = conn.prepareStatement(
+                            "DELETE FROM sources WHERE id = ?")) {
+                for (String[] source : sources) {
+                    String id = source[0];
+                    String url = source[1];
+                    String title = source[2];
+                    boolean titled = title != null && !title.isEmpty();
+                    String canonical = SecurityUtil.canonicalizeUrl(url);
+                    if (canonical == null) {
+                        canonical = url;
+                    }
+
+                    String survivor = survivorByUrl.putIfAbsent(canonical, id);
+                    if (survivor == null) {
+                        titledById.put(id, titled);
+                        rewrites.add(new String[] { id, url, canonical });
+                        continue;
+                    }
+                    movePosts.setString(1, survivor);
+                    movePosts.setString(2, id);
+                    movePosts.executeUpdate();
+                    if (titled && !titledById.get(survivor)) {
+                        fillTitle.setString(1, title);
+                        fillTitle.setString(2, survivor);
+                        fillTitle.executeUpdate();
+                        titledById.put(survivor, true);
+                    }
+                    deleteSource.setString(1, id);
+                    deleteSource.executeUpdate();
+                }
+            }
+
+            // Park changed URLs first so no rewrite can collide with a URL that is about to change.
+            try (PreparedStatement park = conn.prepareStatement(
+                            "UPDATE sources SET url = 'migrating:' || id WHERE id = ?");
+                    PreparedStatement rewrite = conn.prepareStatement(
+                            "UPDATE sources SET url = ?, url_key = ? WHERE id = ?")) {
+                for (String[] row : rewrites) {
+                    if (!row[1].equals(row[2])) {
+                        park.setString(1, row[0]);
+                        park.executeUpdate();
+                    }
+                }
+                for (String[] row : rewrites) {
+                    rewrite.setString(1, row[2]);
+                    rewrite.setLong(2, SecurityUtil.urlKey(row[2]));
+                    rewrite.setString(3, row[0]);
+                    rewrite.executeUpdate();
+                }
+            }
         }
     }
 
@@ -81,6 +394,29 @@ public final class Database {
                 }
         }
 
+        private static boolean hasTable(Connection conn, String table) throws SQLException {
+                try (var stmt = conn.prepareStatement(
+                                "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?")) {
+                        stmt.setString(1, table);
+                        try (var rs = stmt.executeQuery()) {
+                                return rs.next();
+                        }
+                }
+        }
+
+    // Declared type of the column, or null if the table or column does not exist.
+    private static String columnType(Connection conn, String table, String column) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("name"))) {
+                    return rs.getString("type");
+                }
+            }
+        }
+        return null;
+    }
+
         private static boolean hasColumn(Connection conn, String table, String column) throws SQLException {
                 try (Statement stmt = conn.createStatement();
                                 var rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
@@ -16,24 +16,120 @@ public final class HttpUtil {
     private HttpUtil() {
     }
 
-    public static String readBody(HttpExchange exchange) throws IOException {
-        try (InputStream in = exchange.getRequestBody()) {
-            byte[] bytes = in.readNBytes(MAX_REQUEST_SIZE + 1);
-            if (bytes.length > MAX_REQUEST_SIZE) {
-                throw new IOException("Request body too large");
+    // Parses the request body as a JSON object. Returns null after answering 400 if it is not one.
+    public static Map<String, Object> readJsonObject(HttpExchange exchange) throws IOException {
+        long limit = MAX_REQUEST_SIZE;
+        String declared = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (declared != null) {
+            try {
+                limit = Math.min(limit, Long.parseLong(declared.trim()));
+            } catch (NumberFormatException e) {
+                // Ignore a bogus header and fall back to the hard limit.
             }
-            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        try (InputStream in = exchange.getRequestBody()) {
+            return JsonReader.parseObject(in, limit);
+        } catch (JsonReader.MalformedJsonException e) {
+            sendJson(exchange, 400, JsonUtil.error("Invalid JSON: " + e.getMessage()));
+            return null;
         }
     }
 
     public static void sendJson(HttpExchange exchange, int status, String body) throws IOException {
-        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        sendJson(exchange, status, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static void sendJson(HttpExchange exchange, int status, byte[] body) throws IOException {
+        send(exchange, status, new Compression.Body(body), null);
+    }
+
+    // A 200 whose ETag clients must revalidate before reuse. Answers 304 with no body instead when the
+    // request's If-None-Match already names this ETag.
+    public static void sendJson(HttpExchange exchange, Compression.Body body, String etag) throws IOException {
+        if (notModified(exchange, etag)) {
+            return;
+        }
+        send(exchange, 200, body, etag);
+    }
+
+    // Sends 304 and returns true if If-None-Match matches etag; otherwise leaves the exchange untouched.
+    public static boolean notModified(HttpExchange exchange, String etag) throws IOException {
+        String header = exchange.getRequestHeaders().getFirst("If-None-Match");
+        String matched = header == null ? null : matchEtag(header, etag);
+        if (matched == null) {
+            return false;
+        }
+        exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+        setValidators(exchange, matched);
+        exchange.sendResponseHeaders(304, -1);
+        exchange.close();
+        return true;
+    }
+
+    // The ETag of whichever representation of etag the header names, or null. If-None-Match uses weak
+    // comparison, so a W/ prefix added by a proxy still matches.
+    private static String matchEtag(String header, String etag) {
+        for (String candidate : header.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return etag;
+            }
+            for (Compression.Encoding encoding : Compression.Encoding.values()) {
+                if (tag.equals(Compression.etagFor(etag, encoding))) {
+                    return tag;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Sends body compressed when it is large enough and the client accepts an encoding.
+    private static void send(HttpExchange exchange, int status, Compression.Body body, String etag)
+            throws IOException {
+        byte[] bytes = body.bytes();
         exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        if (Compression.isCompressible(bytes.length)) {
+            Compression.Encoding encoding = Compression.negotiate(exchange, bytes.length);
+            Compression.setHeaders(exchange, encoding);
+            bytes = body.encoded(encoding);
+            etag = Compression.etagFor(etag, encoding);
+        }
+        if (etag != null) {
+            setValidators(exchange, etag);
+        }
         exchange.sendResponseHeaders(status, bytes.length);
         exchange.getResponseBody().write(bytes);
         exchange.close();
     }
 
+    // no-cache lets clients keep the body but makes them ask before every reuse.
+    private static void setValidators(HttpExchange exchange, String etag) {
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+    }
+
+    // Starts a streamed JSON response; closing the returned writer completes the exchange.
+    public static JsonWriter openJson(HttpExchange exchange, int status) {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        return JsonWriter.forExchange(exchange, status);
+    }
+
+    // Answers with an error unless the writer already committed a response, in which case the stream is cut.
+    public static void sendError(HttpExchange exchange, JsonWriter writer, int status, String message)
+            throws IOException {
+        if (writer != null && writer.isCommitted()) {
+            exchange.close();
+            return;
+        }
+        if (writer != null) {
+            writer.discard();
+        }
+        sendJson(exchange, status, JsonUtil.error(message));
+    }
+
     public static Map<String, String> parseQuery(String rawQuery) {
         Map<String, String> result = new HashMap<>();
         if (rawQuery == null || rawQuery.isEmpty()) {
@@ -0,0 +1,76 @@
+package edu.ncsu.hacknc;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time-ordered 64-bit ids for sources, posts and votes. The high 43 bits are
+ * milliseconds since {@link #EPOCH_MS} and the low 20 bits a sequence within
+ * the millisecond, so new rows always append to the end of the table's B-tree
+ * and the id doubles as the row's creation order. Ids are stored as INTEGER
+ * PRIMARY KEY (the rowid itself) and only become strings in JSON, because
+ * they exceed the 53 bits a JavaScript number holds exactly.
+ */
+public final class Ids {
+
+    // 2020-01-01T00:00:00Z
+    public static final long EPOCH_MS = 1577836800000L;
+
+    private static final int SEQUENCE_BITS = 20;
+    private static final int MAX_DIGITS = 19;
+
+    private static final AtomicLong LAST = new AtomicLong();
+
+    private Ids() {
+    }
+
+    /**
+     * Next id, strictly greater than every id handed out or observed so far.
+     * If more than 2^20 ids are drawn in one millisecond, or the clock steps
+     * back, ids keep counting up from the last one instead of repeating.
+     */
+    public static long next() {
+        long floor = floorFor(System.currentTimeMillis());
+        return LAST.accumulateAndGet(floor, (last, f) -> Math.max(last + 1, f));
+    }
+
+    /** Smallest id after previous whose timestamp is not before timestampMs; used to assign ids to existing rows. */
+    public static long after(long previous, long timestampMs) {
+        return Math.max(previous + 1, floorFor(timestampMs));
+    }
+
+    // Makes sure next() never returns an id at or below one already stored.
+    public static void observe(long id) {
+        LAST.accumulateAndGet(id, Math::max);
+    }
+
+    public static long timestampOf(long id) {
+        return (id >>> SEQUENCE_BITS) + EPOCH_MS;
+    }
+
+    public static String format(long id) {
+        return Long.toString(id);
+    }
+
+    // Returns null unless raw is the decimal form of a positive id.
+    public static Long parse(String raw) {
+        if (raw == null || raw.isEmpty() || raw.length() > MAX_DIGITS) {
+            return null;
+        }
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+        }
+        try {
+            long id = Long.parseLong(raw);
+            return id > 0 ? id : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long floorFor(long timestampMs) {
+        return Math.max(0, timestampMs - EPOCH_MS) << SEQUENCE_BITS;
+    }
+}
@@ -0,0 +1,370 @@
+package edu.ncsu.hacknc;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single-pass JSON parser that reads straight from a byte stream. Objects
+ * become {@code Map<String, Object>}, arrays {@code List<Object>}, numbers
+ * {@code Long} (or {@code Double} when fractional or out of range), plus
+ * {@code String}, {@code Boolean} and {@code null}.
+ *
+ * The byte and nesting limits are checked as input is consumed, so an
+ * oversized or hostile body is rejected without being buffered first.
+ */
+public final class JsonReader {
+
+    public static final int DEFAULT_MAX_DEPTH = 32;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final InputStream in;
+    private final long maxBytes;
+    private final int maxDepth;
+
+    private final byte[] buf;
+    private int pos;
+    private int limit;
+    private long consumed;
+    private int depth;
+
+    private final StringBuilder scratch = new StringBuilder();
+
+    private JsonReader(InputStream in, long maxBytes, int maxDepth) {
+        this.in = in;
+        this.maxBytes = maxBytes;
+        this.maxDepth = maxDepth;
+        // Small documents with a known bound don't need a full buffer.
+        this.buf = new byte[(int) Math.max(1, Math.min(BUFFER_SIZE, maxBytes + 1))];
+    }
+
+    public static Object parse(InputStream in, long maxBytes) throws IOException {
+        return new JsonReader(in, maxBytes, DEFAULT_MAX_DEPTH).parseDocument();
+    }
+
+    public static Object parse(String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        return parse(new ByteArrayInputStream(bytes), bytes.length);
+    }
+
+    // Parses a document whose top-level value must be an object.
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> parseObject(InputStream in, long maxBytes) throws IOException {
+        Object value = parse(in, maxBytes);
+        if (!(value instanceof Map)) {
+            throw new MalformedJsonException("Expected a JSON object");
+        }
+        return (Map<String, Object>) value;
+    }
+
+    private Object parseDocument() throws IOException {
+        Object value = readValue(skipWhitespace());
+        int trailing = skipWhitespace();
+        if (trailing != -1) {
+            throw syntax("Unexpected trailing data");
+        }
+        return value;
+    }
+
+    private Object readValue(int c) throws IOException {
+        switch (c) {
+        case '{':
+            return readObject();
+        case '[':
+            return readArray();
+        case '"':
+            return readString();
+        case 't':
+            expectLiteral("rue");
+            return Boolean.TRUE;
+        case 'f':
+            expectLiteral("alse");
+            return Boolean.FALSE;
+        case 'n':
+            expectLiteral("ull");
+            return null;
+        case -1:
+            throw syntax("Unexpected end of input");
+        default:
+            if (c == '-' || (c >= '0' && c <= '9')) {
+                return readNumber(c);
+            }
+            throw syntax("Unexpected character");
+        }
+    }
+
+    private Map<String, Object> readObject() throws IOException {
+        enter();
+        Map<String, Object> map = new LinkedHashMap<>();
+        int c = skipWhitespace();
+        if (c == '}') {
+            depth--;
+            return map;
+        }
+        while (true) {
+            if (c != '"') {
+                throw syntax("Expected a field name");
+            }
+            String key = readString();
+            if (skipWhitespace() != ':') {
+                throw syntax("Expected ':'");
+            }
+            map.put(key, readValue(skipWhitespace()));
+            c = skipWhitespace();
+            if (c == '}') {
+                depth--;
+                return map;
+            }
+            if (c != ',') {
+                throw syntax("Expected ',' or '}'");
+            }
+            c = skipWhitespace();
+        }
+    }
+
+    private List<Object> readArray() throws IOException {
+        enter();
+        List<Object> list = new ArrayList<>();
+        int c = skipWhitespace();
+        if (c == ']') {
+            depth--;
+            return list;
+        }
+        while (true) {
+            list.add(readValue(c));
+            c = skipWhitespace();
+            if (c == ']') {
+                depth--;
+                return list;
+            }
+            if (c != ',') {
+                throw syntax("Expected ',' or ']'");
+            }
+            c = skipWhitespace();
+        }
+    }
+
+    private String readString() throws IOException {
+        StringBuilder sb = scratch;
+        sb.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c == '\\') {
+                readEscape(sb);
+            } else if (c < 0) {
+                throw syntax("Unterminated string");
+            } else if (c < 0x20) {
+                throw syntax("Control character in string");
+            } else if (c < 0x80) {
+                sb.append((char) c);
+            } else {
+                readUtf8(c, sb);
+            }
+        }
+    }
+
+    private void readEscape(StringBuilder sb) throws IOException {
+        int c = read();
+        switch (c) {
+        case '"':
+        case '\\':
+        case '/':
+            sb.append((char) c);
+            break;
+        case 'b':
+            sb.append('\b');
+            break;
+        case 'f':
+            sb.append('\f');
+            break;
+        case 'n':
+            sb.append('\n');
+            break;
+        case 'r':
+            sb.append('\r');
+            break;
+        case 't':
+            sb.append('\t');
+            break;
+        case 'u':
+            int code = 0;
+            for (int i = 0; i < 4; i++) {
+                int digit = Character.digit(read(), 16);
+                if (digit < 0) {
+                    throw syntax("Invalid \\u escape");
+                }
+                code = (code << 4) | digit;
+            }
+            sb.append((char) code);
+            break;
+        default:
+            throw syntax("Invalid escape");
+        }
+    }
+
+    private void readUtf8(int lead, StringBuilder sb) throws IOException {
+        int extra;
+        int cp;
+        if ((lead & 0xE0) == 0xC0) {
+            extra = 1;
+            cp = lead & 0x1F;
+        } else if ((lead & 0xF0) == 0xE0) {
+            extra = 2;
+            cp = lead & 0x0F;
+        } else if ((lead & 0xF8) == 0xF0) {
+            extra = 3;
+            cp = lead & 0x07;
+        } else {
+            throw syntax("Invalid UTF-8");
+        }
+        for (int i = 0; i < extra; i++) {
+            int c = read();
+            if ((c & 0xC0) != 0x80) {
+                throw syntax("Invalid UTF-8");
+            }
+            cp = (cp << 6) | (c & 0x3F);
+        }
+        // Reject overlong forms, surrogates and values past U+10FFFF.
+        int min = extra == 1 ? 0x80 : extra == 2 ? 0x800 : 0x10000;
+        if (cp < min || cp > Character.MAX_CODE_POINT || (cp >= 0xD800 && cp <= 0xDFFF)) {
+            throw syntax("Invalid UTF-8");
+        }
+        sb.appendCodePoint(cp);
+    }
+
+    private Object readNumber(int first) throws IOException {
+        StringBuilder sb = scratch;
+        sb.setLength(0);
+        sb.append((char) first);
+        int lead = first;
+        if (first == '-') {
+            lead = read();
+            if (!isDigit(lead)) {
+                throw syntax("Invalid number");
+            }
+            sb.append((char) lead);
+        }
+        if (lead != '0') {
+            readDigits(sb);
+        }
+        boolean integral = true;
+        int c = peek();
+        if (c == '.') {
+            integral = false;
+            pos++;
+            sb.append('.');
+            if (!isDigit(peek())) {
+                throw syntax("Invalid number");
+            }
+            readDigits(sb);
+            c = peek();
+        }
+        if (c == 'e' || c == 'E') {
+            integral = false;
+            pos++;
+            sb.append('e');
+            c = peek();
+            if (c == '+' || c == '-') {
+                pos++;
+                sb.append((char) c);
+            }
+            if (!isDigit(peek())) {
+                throw syntax("Invalid number");
+            }
+            readDigits(sb);
+        }
+        String text = sb.toString();
+        if (integral) {
+            try {
+                return Long.parseLong(text);
+            } catch (NumberFormatException e) {
+                // Outside the long range; fall back to a double.
+            }
+        }
+        return Double.parseDouble(text);
+    }
+
+    private void readDigits(StringBuilder sb) throws IOException {
+        int c;
+        while (isDigit(c = peek())) {
+            pos++;
+            sb.append((char) c);
+        }
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private void expectLiteral(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (read() != rest.charAt(i)) {
+                throw syntax("Invalid literal");
+            }
+        }
+    }
+
+    private void enter() throws IOException {
+        if (++depth > maxDepth) {
+            throw new MalformedJsonException("JSON nesting too deep");
+        }
+    }
+
+    private int skipWhitespace() throws IOException {
+        while (true) {
+            int c = read();
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+    }
+
+    private int peek() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buf[pos] & 0xFF;
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buf[pos++] & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0) {
+            return false;
+        }
+        consumed += n;
+        if (consumed > maxBytes) {
+            throw new IOException("Request body too large");
+        }
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    private MalformedJsonException syntax(String message) {
+        return new MalformedJsonException(message + " at byte " + (consumed - limit + pos));
+    }
+
+    public static final class MalformedJsonException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public MalformedJsonException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package edu.ncsu.hacknc;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * JsonReader check. Parses documents covering string escapes, surrogate
+ * pairs and raw UTF-8, numbers, and the nesting and byte limits, and checks
+ * that malformed input such as trailing data is rejected with a
+ * MalformedJsonException rather than half-parsed. Exits 1 on failure.
+ */
+public class JsonReaderTest {
+
+	private static final List<String> failures = new ArrayList<>();
+
+	public static void main(String[] args) throws Exception {
+		checkValue("escapes", "\"q\\\" b\\\\ s\\/ \\b\\f\\n\\r\\t\"", "q\" b\\ s/ \b\f\n\r\t");
+		checkValue("unicode escape", "\"\\u00e9\\u4E2D\"", "\u00e9\u4e2d");
+		checkValue("escaped surrogate pair", "\"\\ud83d\\ude00\"", new String(Character.toChars(0x1F600)));
+		checkValue("raw UTF-8", "\"caf\u00e9 \u4e2d \ud83d\ude00\"", "caf\u00e9 \u4e2d \ud83d\ude00");
+		checkRejected("bad escape", "\"\\x\"");
+		checkRejected("short unicode escape", "\"\\u12\"");
+		checkRejected("unterminated string", "\"abc");
+		checkRejected("control character in string", "\"a\nb\"");
+		checkRejected("UTF-8 encoded surrogate", bytes(0x22, 0xED, 0xA0, 0x80, 0x22));
+		checkRejected("overlong UTF-8", bytes(0x22, 0xC0, 0xAF, 0x22));
+		checkRejected("truncated UTF-8", bytes(0x22, 0xE4, 0xB8, 0x22));
+
+		checkValue("integer", "-42", -42L);
+		checkValue("long beyond int", "9007199254740993", 9007199254740993L);
+		checkValue("fraction", "2.5e1", 25.0);
+		checkValue("past long range", "9223372036854775808", 9.223372036854775808e18);
+		checkRejected("leading zero", "01");
+		checkRejected("bare minus", "-");
+		checkRejected("missing fraction digits", "1.");
+
+		Object doc = parse("{\"a\": [1, true, null, {\"b\": \"c\"}], \"d\": {}}");
+		check("nested document", doc instanceof Map
+				&& ((Map<?, ?>) doc).get("a").equals(Arrays.asList(1L, Boolean.TRUE, null, Map.of("b", "c")))
+				&& ((Map<?, ?>) doc).get("d").equals(Map.of()));
+		check("field order kept", doc instanceof Map
+				&& new ArrayList<>(((Map<?, ?>) doc).keySet()).equals(Arrays.asList("a", "d")));
+
+		checkValue("nesting at the limit", nested(JsonReader.DEFAULT_MAX_DEPTH), nestedList(JsonReader.DEFAULT_MAX_DEPTH));
+		checkRejected("nesting past the limit", nested(JsonReader.DEFAULT_MAX_DEPTH + 1));
+
+		byte[] body = "{\"comment\": \"0123456789\"}".getBytes(StandardCharsets.UTF_8);
+		check("body at the byte limit", parseQuietly(body, body.length) instanceof Map);
+		try {
+			JsonReader.parse(new ByteArrayInputStream(body), body.length - 1);
+			fail("body past the byte limit");
+		} catch (JsonReader.MalformedJsonException e) {
+			fail("body past the byte limit reported as malformed");
+		} catch (IOException e) {
+			check("body past the byte limit", true);
+		}
+
+		checkValue("trailing whitespace", "{} \r\n\t", Map.of());
+		checkRejected("trailing garbage", "{} x");
+		checkRejected("second value", "[1] [2]");
+		checkRejected("extra bracket", "[1]]");
+		checkRejected("trailing comma in array", "[1,]");
+		checkRejected("trailing comma in object", "{\"a\": 1,}");
+		checkRejected("unquoted name", "{a: 1}");
+		checkRejected("empty document", "");
+		checkRejected("bad literal", "nul");
+
+		try {
+			JsonReader.parseObject(new ByteArrayInputStream(bytes('[', ']')), 2);
+			fail("parseObject rejects arrays");
+		} catch (JsonReader.MalformedJsonException e) {
+			check("parseObject rejects arrays", true);
+		}
+
+		if (!failures.isEmpty()) {
+			System.out.println(failures.size() + " JSON reader check(s) failed");
+			System.exit(1);
+		}
+		System.out.println("JSON reader checks passed");
+	}
+
+	private static void checkValue(String name, String json, Object expected) {
+		Object actual;
+		try {
+			actual = parse(json);
+		} catch (IOException e) {
+			System.out.println("     ! " + e.getMessage());
+			fail(name);
+			return;
+		}
+		boolean ok = expected == null ? actual == null : expected.equals(actual);
+		if (!ok) {
+			System.out.println("     ! got " + actual);
+		}
+		check(name, ok);
+	}
+
+	private static void checkRejected(String name, String json) {
+		checkRejected(name, json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void checkRejected(String name, byte[] json) {
+		try {
+			Object value = JsonReader.parse(new ByteArrayInputStream(json), json.length);
+			System.out.println("     ! parsed as " + value);
+			fail(name);
+		} catch (JsonReader.MalformedJsonException e) {
+			check(name, true);
+		} catch (IOException e) {
+			System.out.println("     ! " + e);
+			fail(name);
+		}
+	}
+
+	private static void check(String name, boolean ok) {
+		System.out.printf("%-4s %s%n", ok ? "ok" : "FAIL", name);
+		if (!ok) {
+			failures.add(name);
+		}
+	}
+
+	private static void fail(String name) {
+		check(name, false);
+	}
+
+	private static Object parse(String json) throws IOException {
+		return JsonReader.parse(json);
+	}
+
+	private static Object parseQuietly(byte[] json, long maxBytes) {
+		try {
+			return JsonReader.parse(new ByteArrayInputStream(json), maxBytes);
+		} catch (IOException e) {
+			return e;
+		}
+	}
+
+	// depth arrays nested inside one another around a 0.
+	private static String nested(int depth) {
+		return "[".repeat(depth) + "0" + "]".repeat(depth);
+	}
+
+	private static Object nestedList(int depth) {
+		Object value = 0L;
+		for (int i = 0; i < depth; i++) {
+			value = Arrays.asList(value);
+		}
+		return value;
+	}
+
+	private static byte[] bytes(int... values) {
+		byte[] bytes = new byte[values.length];
+		for (int i = 0; i < values.length; i++) {
+			bytes[i] = (byte) values[i];
+		}
+		return bytes;
+	}
+}
@@ -1,37 +1,61 @@
 package edu.ncsu.hacknc;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public final class JsonUtil {
 
-    private static final Pattern PAIR = Pattern.compile(
-            "\"([^\"]+)\"\\s*:\\s*(\"(?:\\\\.|[^\"])*\"|true|false|-?\\d+(?:\\.\\d+)?)");
-
     private JsonUtil() {
     }
 
-    // Minimal flat JSON object parser: {"key":"value","n":1,"b":true}
+    // Flat view of a JSON object: scalar fields as strings, nulls and nested values omitted.
+    // Malformed input yields an empty map.
     public static Map<String, String> parseObject(String json) {
         Map<String, String> map = new HashMap<>();
         if (json == null) {
             return map;
         }
-        Matcher matcher = PAIR.matcher(json);
-        while (matcher.find()) {
-            String key = matcher.group(1);
-            String raw = matcher.group(2);
-            if (raw.startsWith("\"") && raw.endsWith("\"")) {
-                map.put(key, unquote(raw));
-            } else {
-                map.put(key, raw);
+        Object parsed;
+        try {
+            parsed = JsonReader.parse(json);
+        } catch (IOException e) {
+            return map;
+        }
+        if (parsed instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) parsed).entrySet()) {
+                String value = scalar(entry.getValue());
+                if (value != null) {
+                    map.put((String) entry.getKey(), value);
+                }
             }
         }
         return map;
     }
 
+    // Returns a scalar field as a string (numbers and booleans as written), or null if absent, null or nested.
+    public static String getString(Map<String, Object> object, String key) {
+        return scalar(object.get(key));
+    }
+
+    // Returns an array of strings, or null if the field is absent, not an array, or holds non-strings.
+    public static List<String> getStringList(Map<String, Object> object, String key) {
+        Object value = object.get(key);
+        if (!(value instanceof List)) {
+            return null;
+        }
+        List<String> strings = new ArrayList<>();
+        for (Object item : (List<?>) value) {
+            if (!(item instanceof String)) {
+                return null;
+            }
+            strings.add((String) item);
+        }
+        return strings;
+    }
+
     public static String quote(String value) {
         if (value == null) {
             return "null";
@@ -80,12 +104,13 @@ public final class JsonUtil {
         return "true".equalsIgnoreCase(raw) || "1".equals(raw);
     }
 
-    private static String unquote(String raw) {
-        String s = raw.substring(1, raw.length() - 1);
-        return s.replace("\\\"", "\"")
-                .replace("\\\\", "\\")
-                .replace("\\n", "\n")
-                .replace("\\r", "\r")
-                .replace("\\t", "\t");
+    private static String scalar(Object value) {
+        if (value instanceof String) {
+            return (String) value;
+        }
+        if (value instanceof Long || value instanceof Double || value instanceof Boolean) {
+            return value.toString();
+        }
+        return null;
     }
 }
\ No newline at end of file
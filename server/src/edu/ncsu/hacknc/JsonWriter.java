@@ -0,0 +1,354 @@
+package edu.ncsu.hacknc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Streaming JSON encoder that escapes and UTF-8 encodes straight into a byte
+ * buffer. Bound to an exchange, the buffer is flushed to the response body
+ * as it fills: a body that fits in one buffer goes out with an exact
+ * Content-Length, anything larger switches to chunked transfer. Nothing is
+ * sent until the first flush, so a handler can still {@link #discard()} and
+ * answer with an error if it fails early. Either way the body is compressed
+ * when {@link Compression} negotiates an encoding for it.
+ */
+public final class JsonWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_DEPTH = 64;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+    private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+    private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+
+    private final HttpExchange exchange;
+    private final int status;
+    private OutputStream out;
+    private boolean encoded;
+
+    private byte[] buf = new byte[BUFFER_SIZE];
+    private int pos;
+
+    private final boolean[] hasElements = new boolean[MAX_DEPTH];
+    private int depth;
+    private boolean afterName;
+    private boolean closed;
+
+    private JsonWriter(HttpExchange exchange, int status) {
+        this.exchange = exchange;
+        this.status = status;
+    }
+
+    // Writer whose output is sent as the exchange's response; close() completes the exchange.
+    public static JsonWriter forExchange(HttpExchange exchange, int status) {
+        return new JsonWriter(exchange, status);
+    }
+
+    // Writer that accumulates in memory; read the result with toByteArray().
+    public static JsonWriter inMemory() {
+        return new JsonWriter(null, 0);
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        beforeValue();
+        push();
+        writeByte('{');
+        return this;
+    }
+
+    public JsonWriter endObject() throws IOException {
+        depth--;
+        writeByte('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        beforeValue();
+        push();
+        writeByte('[');
+        return this;
+    }
+
+    public JsonWriter endArray() throws IOException {
+        depth--;
+        writeByte(']');
+        return this;
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        separate();
+        writeString(name);
+        writeByte(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        beforeValue();
+        if (value == null) {
+            writeBytes(NULL, 0, NULL.length);
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        writeAscii(Long.toString(value));
+        return this;
+    }
+
+    // JSON has no NaN or Infinity, so those are written as null.
+    public JsonWriter value(double value) throws IOException {
+        beforeValue();
+        writeAscii(Double.isFinite(value) ? Double.toString(value) : "null");
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        byte[] literal = value ? TRUE : FALSE;
+        writeBytes(literal, 0, literal.length);
+        return this;
+    }
+
+    // Embeds an already-encoded JSON value, e.g. a cached object.
+    public JsonWriter rawValue(byte[] json) throws IOException {
+        beforeValue();
+        writeBytes(json, 0, json.length);
+        return this;
+    }
+
+    public JsonWriter field(String name, String value) throws IOException {
+        return name(name).value(value);
+    }
+
+    public JsonWriter field(String name, long value) throws IOException {
+        return name(name).value(value);
+    }
+
+    public JsonWriter field(String name, double value) throws IOException {
+        return name(name).value(value);
+    }
+
+    public JsonWriter field(String name, boolean value) throws IOException {
+        return name(name).value(value);
+    }
+
+    // True once response headers have gone out and an error status can no longer be sent.
+    public boolean isCommitted() {
+        return out != null;
+    }
+
+    // Drops buffered output so the exchange can still be answered another way.
+    public void discard() {
+        if (!isCommitted()) {
+            pos = 0;
+            depth = 0;
+            afterName = false;
+        }
+    }
+
+    public byte[] toByteArray() {
+        if (exchange != null) {
+            throw new IllegalStateException("Exchange-bound writers stream their output");
+        }
+        return Arrays.copyOf(buf, pos);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed || exchange == null) {
+            return;
+        }
+        closed = true;
+        try {
+            if (out == null) {
+                sendBuffered();
+                return;
+            }
+            if (pos > 0) {
+                out.write(buf, 0, pos);
+                pos = 0;
+            }
+        } finally {
+            try {
+                if (encoded) {
+                    // Writes the compressed stream's trailer; also returns its deflater to the pool when the
+                    // client has gone away and the write above failed.
+                    out.close();
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    private void push() throws IOException {
+        if (depth == MAX_DEPTH) {
+            throw new IOException("JSON nesting too deep");
+        }
+        hasElements[depth++] = false;
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        separate();
+    }
+
+    private void separate() throws IOException {
+        if (depth > 0) {
+            if (hasElements[depth - 1]) {
+                writeByte(',');
+            }
+            hasElements[depth - 1] = true;
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        writeByte('"');
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    writeByte('\\');
+                    writeByte(c);
+                } else if (c >= 0x20) {
+                    writeByte(c);
+                } else {
+                    writeControl(c);
+                }
+            } else if (c < 0x800) {
+                ensure(2);
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                ensure(4);
+                buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate: not encodable as UTF-8, emit U+FFFD like String.getBytes does.
+                ensure(3);
+                buf[pos++] = (byte) 0xEF;
+                buf[pos++] = (byte) 0xBF;
+                buf[pos++] = (byte) 0xBD;
+            } else {
+                ensure(3);
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        writeByte('"');
+    }
+
+    private void writeControl(char c) throws IOException {
+        switch (c) {
+        case '\n':
+            writeByte('\\');
+            writeByte('n');
+            break;
+        case '\r':
+            writeByte('\\');
+            writeByte('r');
+            break;
+        case '\t':
+            writeByte('\\');
+            writeByte('t');
+            break;
+        default:
+            ensure(6);
+            buf[pos++] = '\\';
+            buf[pos++] = 'u';
+            buf[pos++] = '0';
+            buf[pos++] = '0';
+            buf[pos++] = HEX[c >> 4];
+            buf[pos++] = HEX[c & 0xF];
+        }
+    }
+
+    private void writeAscii(String s) throws IOException {
+        int len = s.length();
+        ensure(len);
+        for (int i = 0; i < len; i++) {
+            buf[pos++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void writeByte(int b) throws IOException {
+        ensure(1);
+        buf[pos++] = (byte) b;
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        if (length > buf.length - pos && exchange != null) {
+            flush();
+            if (length > buf.length) {
+                out.write(bytes, offset, length);
+                return;
+            }
+        }
+        ensure(length);
+        System.arraycopy(bytes, offset, buf, pos, length);
+        pos += length;
+    }
+
+    private void ensure(int needed) throws IOException {
+        if (buf.length - pos >= needed) {
+            return;
+        }
+        if (exchange == null) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + needed));
+        } else {
+            flush();
+        }
+    }
+
+    // The whole body fit in the buffer, so it goes out in one piece with its length known.
+    private void sendBuffered() throws IOException {
+        Compression.Encoding encoding = pos > 0 ? Compression.negotiate(exchange, pos) : null;
+        if (pos > 0 && Compression.isCompressible(pos)) {
+            Compression.setHeaders(exchange, encoding);
+        }
+        byte[] body = buf;
+        int length = pos;
+        if (encoding != null) {
+            body = Compression.compress(buf, 0, pos, encoding);
+            length = body.length;
+        }
+        exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+        out = exchange.getResponseBody();
+        if (length > 0) {
+            out.write(body, 0, length);
+        }
+        pos = 0;
+    }
+
+    private void flush() throws IOException {
+        if (out == null) {
+            Compression.Encoding encoding = Compression.negotiate(exchange, -1);
+            Compression.setHeaders(exchange, encoding);
+            exchange.sendResponseHeaders(status, 0);
+            out = exchange.getResponseBody();
+            if (encoding != null) {
+                out = Compression.wrap(out, encoding);
+                encoded = true;
+            }
+        }
+        out.write(buf, 0, pos);
+        pos = 0;
+    }
+}
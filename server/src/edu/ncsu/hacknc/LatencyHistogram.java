@@ -0,0 +1,136 @@
+package edu.ncsu.hacknc;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets in the style of
+ * HdrHistogram: values are recorded in microseconds, every power of two is
+ * split into eight linear sub-buckets, so any percentile is accurate to
+ * within about 12% over a range of microseconds to hours.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    private static final long MAX_TRACKABLE_MICROS = 1L << 36; // ~19 hours
+    private static final int BUCKET_COUNT = index(MAX_TRACKABLE_MICROS) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public void recordNanos(long nanos) {
+        recordMicros(nanos / 1_000L);
+    }
+
+    public void recordMicros(long micros) {
+        long value = Math.max(0, Math.min(micros, MAX_TRACKABLE_MICROS));
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sumMicros.add(value);
+        maxMicros.accumulateAndGet(value, Math::max);
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        return new Snapshot(copy, total, sumMicros.sum(), maxMicros.get());
+    }
+
+    private static int index(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int highestBit = 63 - Long.numberOfLeadingZeros(micros);
+        int shift = highestBit - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) ((micros >> shift) - HALF_SUB_BUCKETS);
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int k = index - SUB_BUCKETS;
+        int shift = k / HALF_SUB_BUCKETS + 1;
+        long sub = k % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sumMicros;
+        private final long maxMicros;
+
+        private Snapshot(long[] counts, long count, long sumMicros, long maxMicros) {
+            this.counts = counts;
+            this.count = count;
+            this.sumMicros = sumMicros;
+            this.maxMicros = maxMicros;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getSumMillis() {
+            return sumMicros / 1000.0;
+        }
+
+        public double getMaxMillis() {
+            return maxMicros / 1000.0;
+        }
+
+        public double getMeanMillis() {
+            return count == 0 ? 0.0 : sumMicros / (double) count / 1000.0;
+        }
+
+        // Recorded values no greater than micros; a bucket straddling the bound is left out, so this may
+        // undercount by the ~12% bucket width. Used for cumulative Prometheus buckets.
+        public long countAtOrBelow(long micros) {
+            long total = 0;
+            for (int i = 0; i < counts.length && upperBound(i) <= micros; i++) {
+                total += counts[i];
+            }
+            return total;
+        }
+
+        // Percentile in milliseconds, e.g. percentile(99.9).
+        public double percentile(double percentile) {
+            if (count == 0) {
+                return 0.0;
+            }
+            long rank = (long) Math.ceil(percentile / 100.0 * count);
+            rank = Math.max(1, Math.min(rank, count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), maxMicros) / 1000.0;
+                }
+            }
+            return maxMicros / 1000.0;
+        }
+
+        public void writeTo(JsonWriter json) throws IOException {
+            json.beginObject()
+                .field("count", count)
+                .field("meanMs", getMeanMillis())
+                .field("p50Ms", percentile(50))
+                .field("p90Ms", percentile(90))
+                .field("p99Ms", percentile(99))
+                .field("p999Ms", percentile(99.9))
+                .field("maxMs", getMaxMillis())
+                .endObject();
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package edu.ncsu.hacknc;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HTTP load generator for capacity checks against a running server. It seeds
+ * users, sources and posts through the API, replays a weighted mix of
+ * operations, and reports throughput and latency percentiles per operation.
+ *
+ * Closed loop (default): each of concurrency workers sends its next request
+ * as soon as the previous one is answered. Open loop (-Dcrowdtruth.load.rate=N):
+ * requests are scheduled at N per second whatever the server does, with at
+ * most concurrency in flight, and latency is measured from each request's
+ * scheduled send time, so a stalled server shows up as latency instead of
+ * silently lowering the offered load.
+ *
+ * Usage: LoadTest [concurrency] [seconds] [mix|path]
+ *   mix   weights per operation, e.g. badge=70,source=10,search=10,post=5,vote=5
+ *         (default: badge, the GET /sources/summary?url= read the extension makes)
+ *   path  a single GET path, replayed as-is without seeding
+ *
+ * Properties: crowdtruth.load.base (http://localhost:8080), crowdtruth.load.rate
+ * (0 = closed loop), crowdtruth.load.users (20), crowdtruth.load.sources (200),
+ * crowdtruth.load.posts (2000), crowdtruth.load.json=true to print one JSON
+ * document instead of a table.
+ *
+ * To compare executor modes, start the server once with
+ * -Dcrowdtruth.executor=fixed and once with =virtual and run the same mix.
+ */
+public class LoadTest {
+
+	private static final String BASE = System.getProperty("crowdtruth.load.base", "http://localhost:8080");
+	private static final int RATE = Integer.getInteger("crowdtruth.load.rate", 0);
+	private static final int USERS = Integer.getInteger("crowdtruth.load.users", 20);
+	private static final int SOURCES = Integer.getInteger("crowdtruth.load.sources", 200);
+	private static final int POSTS = Integer.getInteger("crowdtruth.load.posts", 2000);
+	private static final boolean JSON = Boolean.getBoolean("crowdtruth.load.json");
+	private static final int WARMUP_SECONDS = 3;
+	private static final int SEED_CONCURRENCY = 16;
+	private static final String PASSWORD = "Load!1test";
+
+	private static final String[] WORDS = { "vaccine", "study", "climate", "report", "election", "poll",
+			"misquoted", "figure", "survey", "sample", "source", "article", "claim", "context", "chart",
+			"percent", "budget", "economy", "health", "court", "ruling", "video", "photo", "edited",
+			"satire", "original", "retracted", "correction", "statement", "data", "trend", "analysis" };
+
+	private enum Op {
+		BADGE, SOURCE, SEARCH, POST, VOTE, PATH
+	}
+
+	public static void main(String[] args) throws Exception {
+		int concurrency = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 15;
+		String spec = args.length > 2 ? args[2] : "badge";
+
+		HttpClient client = HttpClient.newBuilder()
+				.executor(Executors.newFixedThreadPool(4))
+				.connectTimeout(Duration.ofSeconds(5))
+				.build();
+
+		Workload workload = spec.startsWith("/") ? new Workload(spec) : new Workload(parseMix(spec));
+		if (workload.path == null) {
+			seed(client, workload);
+		}
+
+		// Warm up the server's JIT and caches before measuring.
+		run(client, workload, concurrency, WARMUP_SECONDS, new EnumMap<>(Op.class));
+
+		Map<Op, OpStats> stats = new EnumMap<>(Op.class);
+		long start = System.nanoTime();
+		run(client, workload, concurrency, seconds, stats);
+		double elapsed = (System.nanoTime() - start) / 1_000_000_000.0;
+
+		if (JSON) {
+			printJson(spec, concurrency, elapsed, stats);
+		} else {
+			printTable(spec, concurrency, elapsed, stats);
+		}
+		System.exit(0);
+	}
+
+	private static void run(HttpClient client, Workload workload, int concurrency, int seconds,
+			Map<Op, OpStats> stats) throws Exception {
+		for (Op op : Op.values()) {
+			stats.put(op, new OpStats());
+		}
+		if (RATE > 0) {
+			runOpenLoop(client, workload, concurrency, seconds, stats);
+		} else {
+			runClosedLoop(client, workload, concurrency, seconds, stats);
+		}
+	}
+
+	private static void runClosedLoop(HttpClient client, Workload workload, int concurrency, int seconds,
+			Map<Op, OpStats> stats) throws Exception {
+		long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+		ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < concurrency; i++) {
+			futures.add(workers.submit(() -> {
+				while (System.nanoTime() < deadline) {
+					Op op = workload.pick();
+					HttpRequest request = workload.request(op);
+					long sent = System.nanoTime();
+					try {
+						HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+						stats.get(op).record(op, response.statusCode(), System.nanoTime() - sent);
+					} catch (Exception e) {
+						stats.get(op).errors.increment();
+					}
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		workers.shutdown();
+	}
+
+	private static void runOpenLoop(HttpClient client, Workload workload, int concurrency, int seconds,
+			Map<Op, OpStats> stats) throws Exception {
+		long period = 1_000_000_000L / RATE;
+		Semaphore inFlight = new Semaphore(concurrency);
+		long start = System.nanoTime();
+		long deadline = start + seconds * 1_000_000_000L;
+		for (long i = 0; ; i++) {
+			long scheduled = start + i * period;
+			if (scheduled >= deadline) {
+				break;
+			}
+			long wait = scheduled - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			inFlight.acquire();
+			Op op = workload.pick();
+			client.sendAsync(workload.request(op), HttpResponse.BodyHandlers.discarding())
+					.whenComplete((response, error) -> {
+						inFlight.release();
+						if (error != null) {
+							stats.get(op).errors.increment();
+						} else {
+							stats.get(op).record(op, response.statusCode(), System.nanoTime() - scheduled);
+						}
+					});
+		}
+		inFlight.acquire(concurrency);
+	}
+
+	/*
+	 * Registers USERS accounts and logs them in, then creates POSTS posts
+	 * spread over SOURCES source URLs (the first post on a URL creates the
+	 * source), so reads, searches and votes have realistic data to hit.
+	 */
+	private static void seed(HttpClient client, Workload workload) throws Exception {
+		long start = System.nanoTime();
+		String runId = Long.toString(System.currentTimeMillis(), 36);
+		ExecutorService pool = Executors.newFixedThreadPool(SEED_CONCURRENCY);
+		try {
+			List<Future<String>> logins = new ArrayList<>();
+			for (int i = 0; i < USERS; i++) {
+				String email = "load-" + runId + "-" + i + "@example.com";
+				logins.add(pool.submit(() -> {
+					post(client, "/auth/register", "{\"id\":" + JsonUtil.quote(UUID.randomUUID().toString())
+							+ ",\"email\":" + JsonUtil.quote(email) + ",\"password\":" + JsonUtil.quote(PASSWORD) + "}",
+							null);
+					String body = post(client, "/auth/login", "{\"email\":" + JsonUtil.quote(email)
+							+ ",\"password\":" + JsonUtil.quote(PASSWORD) + "}", null);
+					return JsonUtil.parseObject(body).get("token");
+				}));
+			}
+			for (Future<String> login : logins) {
+				workload.tokens.add(login.get());
+			}
+
+			for (int i = 0; i < SOURCES; i++) {
+				workload.urls.add("https://example.com/load/" + runId + "/" + i);
+			}
+			List<Future<String>> posts = new ArrayList<>();
+			for (int i = 0; i < POSTS; i++) {
+				posts.add(pool.submit(() -> {
+					String body = post(client, "/posts", workload.postBody(), workload.token());
+					return JsonUtil.parseObject(body).get("postId");
+				}));
+			}
+			for (Future<String> post : posts) {
+				workload.postIds.add(post.get());
+			}
+		} finally {
+			pool.shutdown();
+		}
+		if (!JSON) {
+			System.out.printf("seeded users=%d sources=%d posts=%d in %.1fs%n", USERS, SOURCES, POSTS,
+					(System.nanoTime() - start) / 1_000_000_000.0);
+		}
+	}
+
+	private static String post(HttpClient client, String path, String body, String token) throws Exception {
+		HttpRequest.Builder builder = HttpRequest.newBuilder()
+				.uri(URI.create(BASE + path))
+				.POST(HttpRequest.BodyPublishers.ofString(body))
+				.header("Content-Type", "application/json");
+		if (token != null) {
+			builder.header("Authorization", "Bearer " + token);
+		}
+		HttpResponse<String> response = client.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+		if (response.statusCode() >= 400) {
+			throw new IllegalStateException("Seeding " + path + " failed: " + response.body());
+		}
+		return response.body();
+	}
+
+	private static Map<Op, Integer> parseMix(String spec) {
+		Map<Op, Integer> mix = new EnumMap<>(Op.class);
+		for (String part : spec.split(",")) {
+			String[] kv = part.trim().split("=", 2);
+			Op op = Op.valueOf(kv[0].trim().toUpperCase(Locale.ROOT));
+			if (op == Op.PATH) {
+				throw new IllegalArgumentException("Pass a path instead of a mix to replay a single GET");
+			}
+			int weight = kv.length > 1 ? Integer.parseInt(kv[1].trim()) : 1;
+			if (weight > 0) {
+				mix.put(op, weight);
+			}
+		}
+		if (mix.isEmpty()) {
+			throw new IllegalArgumentException("Empty mix: " + spec);
+		}
+		return mix;
+	}
+
+	private static void printTable(String spec, int concurrency, double elapsed, Map<Op, OpStats> stats) {
+		System.out.printf("workload=%s mode=%s concurrency=%d duration=%.1fs%n", spec,
+				RATE > 0 ? "open rate=" + RATE + "/s" : "closed", concurrency, elapsed);
+		System.out.printf("%-8s %10s %8s %9s %10s %9s %9s %9s %9s%n",
+				"op", "requests", "errors", "conflicts", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+		for (Map.Entry<Op, OpStats> entry : stats.entrySet()) {
+			OpStats op = entry.getValue();
+			LatencyHistogram.Snapshot snapshot = op.latency.snapshot();
+			if (snapshot.getCount() == 0 && op.errors.sum() == 0) {
+				continue;
+			}
+			System.out.printf("%-8s %10d %8d %9d %10.1f %9.2f %9.2f %9.2f %9.2f%n",
+					entry.getKey().name().toLowerCase(Locale.ROOT), snapshot.getCount(), op.errors.sum(),
+					op.conflicts.sum(), snapshot.getCount() / elapsed, snapshot.percentile(50),
+					snapshot.percentile(99), snapshot.percentile(99.9), snapshot.getMaxMillis());
+		}
+	}
+
+	private static void printJson(String spec, int concurrency, double elapsed, Map<Op, OpStats> stats)
+			throws Exception {
+		JsonWriter json = JsonWriter.inMemory();
+		json.beginObject()
+			.field("workload", spec)
+			.field("mode", RATE > 0 ? "open" : "closed")
+			.field("rate", RATE)
+			.field("concurrency", concurrency)
+			.field("durationSeconds", elapsed)
+			.name("ops").beginObject();
+		for (Map.Entry<Op, OpStats> entry : stats.entrySet()) {
+			OpStats op = entry.getValue();
+			LatencyHistogram.Snapshot snapshot = op.latency.snapshot();
+			if (snapshot.getCount() == 0 && op.errors.sum() == 0) {
+				continue;
+			}
+			json.name(entry.getKey().name().toLowerCase(Locale.ROOT)).beginObject()
+				.field("requests", snapshot.getCount())
+				.field("errors", op.errors.sum())
+				.field("conflicts", op.conflicts.sum())
+				.field("throughput", snapshot.getCount() / elapsed)
+				.name("latency");
+			snapshot.writeTo(json);
+			json.endObject();
+		}
+		json.endObject().endObject();
+		System.out.println(new String(json.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	private static final class OpStats {
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final LongAdder errors = new LongAdder();
+		private final LongAdder conflicts = new LongAdder();
+
+		// A repeat vote by the same user is answered 409 by design; count it apart from failures.
+		private void record(Op op, int status, long nanos) {
+			latency.recordNanos(nanos);
+			if (op == Op.VOTE && status == 409) {
+				conflicts.increment();
+			} else if (status >= 400) {
+				errors.increment();
+			}
+		}
+	}
+
+	private static final class Workload {
+		private final String path;
+		private final Op[] ops;
+		private final int[] cumulativeWeights;
+		private final List<String> tokens = Collections.synchronizedList(new ArrayList<>());
+		private final List<String> urls = new ArrayList<>();
+		private final List<String> postIds = Collections.synchronizedList(new ArrayList<>());
+
+		private Workload(String path) {
+			this.path = path;
+			this.ops = new Op[] { Op.PATH };
+			this.cumulativeWeights = new int[] { 1 };
+		}
+
+		private Workload(Map<Op, Integer> mix) {
+			this.path = null;
+			this.ops = mix.keySet().toArray(new Op[0]);
+			this.cumulativeWeights = new int[ops.length];
+			int total = 0;
+			for (int i = 0; i < ops.length; i++) {
+				total += mix.get(ops[i]);
+				cumulativeWeights[i] = total;
+			}
+		}
+
+		private Op pick() {
+			int roll = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+			for (int i = 0; i < ops.length; i++) {
+				if (roll < cumulativeWeights[i]) {
+					return ops[i];
+				}
+			}
+			return ops[ops.length - 1];
+		}
+
+		private HttpRequest request(Op op) {
+			switch (op) {
+			case BADGE:
+				return get("/sources/summary?url=" + encode(url()));
+			case SOURCE:
+				return get("/sources?url=" + encode(url()));
+			case SEARCH:
+				return get("/search?type=posts&limit=20&q=" + encode(word()));
+			case POST:
+				return postRequest("/posts", postBody());
+			case VOTE:
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				return postRequest("/votes", "{\"postId\":" + JsonUtil.quote(postIds.get(random.nextInt(postIds.size())))
+						+ ",\"agree\":" + random.nextBoolean() + ",\"rating\":" + (1 + random.nextInt(5)) + "}");
+			default:
+				return get(path);
+			}
+		}
+
+		private String postBody() {
+			return "{\"url\":" + JsonUtil.quote(url())
+					+ ",\"title\":" + JsonUtil.quote(words(4))
+					+ ",\"comment\":" + JsonUtil.quote(words(24)) + "}";
+		}
+
+		private HttpRequest get(String pathAndQuery) {
+			return HttpRequest.newBuilder().uri(URI.create(BASE + pathAndQuery)).GET().build();
+		}
+
+		private HttpRequest postRequest(String target, String body) {
+			return HttpRequest.newBuilder()
+					.uri(URI.create(BASE + target))
+					.POST(HttpRequest.BodyPublishers.ofString(body))
+					.header("Content-Type", "application/json")
+					.header("Authorization", "Bearer " + token())
+					.build();
+		}
+
+		private String token() {
+			return tokens.get(ThreadLocalRandom.current().nextInt(tokens.size()));
+		}
+
+		// Skewed towards the first URLs, so a few sources are hot as on the real badge path.
+		private String url() {
+			double skew = Math.pow(ThreadLocalRandom.current().nextDouble(), 2);
+			return urls.get((int) (skew * urls.size()));
+		}
+
+		private static String word() {
+			return WORDS[ThreadLocalRandom.current().nextInt(WORDS.length)];
+		}
+
+		private static String words(int count) {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < count; i++) {
+				if (i > 0) {
+					sb.append(' ');
+				}
+				sb.append(word());
+			}
+			return sb.toString();
+		}
+
+		private static String encode(String value) {
+			return URLEncoder.encode(value, StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -3,13 +3,30 @@ package edu.ncsu.hacknc;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
@@ -17,24 +34,228 @@ import com.sun.net.httpserver.HttpServer;
 
 public class Main {
 
+    private static final Logger LOG = LoggerFactory.getLogger(Main.class);
+
     private static final int PORT = 8080;
+    private static final int MAX_BATCH_SIZE = Integer.getInteger("crowdtruth.batch.maxSize", 100);
+    // Posts embedded in GET /sources; the rest are paged through /sources/{id}/posts with the returned cursor.
+    private static final int SOURCE_POSTS_INLINE = Integer.getInteger("crowdtruth.source.inlinePosts", 50);
+
+    private static final AuthExecutor AUTH_EXECUTOR = new AuthExecutor(
+            Integer.getInteger("crowdtruth.auth.threads", Math.max(2, Runtime.getRuntime().availableProcessors() / 2)),
+            Integer.getInteger("crowdtruth.auth.queueCapacity", 64),
+            Integer.getInteger("crowdtruth.auth.maxPerClient", 4));
+    private static final TokenCache TOKEN_CACHE = new TokenCache(
+            Integer.getInteger("crowdtruth.tokenCache.maxEntries", 50_000),
+            Integer.getInteger("crowdtruth.tokenCache.maxNegativeEntries", 50_000),
+            Long.getLong("crowdtruth.tokenCache.negativeTtlMs", 60_000L));
+    private static final SourceCache SOURCE_CACHE = new SourceCache(
+            Integer.getInteger("crowdtruth.cache.maxEntries", 10_000),
+            Long.getLong("crowdtruth.cache.ttlMs", 30_000L));
+    private static final SourceCache SUMMARY_CACHE = new SourceCache(
+            Integer.getInteger("crowdtruth.cache.maxEntries", 10_000),
+            Long.getLong("crowdtruth.cache.ttlMs", 30_000L));
+    private static final SourceIdCache SOURCE_IDS = new SourceIdCache(
+            Integer.getInteger("crowdtruth.sourceIds.maxEntries", 100_000));
+    private static final PlatformCounters COUNTERS = new PlatformCounters();
+    private static final WriteBatcher WRITE_BATCHER = new WriteBatcher(
+            Integer.getInteger("crowdtruth.writes.maxBatchSize", 500),
+            Long.getLong("crowdtruth.writes.maxDelayMicros", 5_000L),
+            Integer.getInteger("crowdtruth.writes.queueCapacity", 10_000),
+            Long.getLong("crowdtruth.writes.timeoutMs", 10_000L));
+    private static final long COUNTER_RECONCILE_MS = Long.getLong("crowdtruth.stats.reconcileMs", 60_000L);
+    // Concurrent cache misses for the same source share one render; keyed by "id:..." or "url:...".
+    private static final long RENDER_WAIT_MS = Long.getLong("crowdtruth.singleFlight.timeoutMs", 5_000L);
+    private static final SingleFlight<String, RenderedSource> SOURCE_RENDERS = new SingleFlight<>(RENDER_WAIT_MS);
+    private static final SingleFlight<String, RenderedSource> SUMMARY_RENDERS = new SingleFlight<>(RENDER_WAIT_MS);
+    // Live reputation streams for GET /sources/{id}/events; see SourceEvents.
+    private static final SourceEvents SOURCE_EVENTS = new SourceEvents(
+            Integer.getInteger("crowdtruth.events.maxStreams", 1000),
+            Integer.getInteger("crowdtruth.events.queueFrames", 32),
+            Long.getLong("crowdtruth.events.intervalMs", 1000L),
+            Long.getLong("crowdtruth.events.heartbeatMs", 15_000L),
+            Long.getLong("crowdtruth.events.writeTimeoutMs", 10_000L),
+            Integer.getInteger("crowdtruth.events.writerThreads", 2),
+            Main::loadReputations);
+    // Sizing for KNOWN_URLS; startup allows at least twice the sources already stored.
+    private static final long URL_FILTER_EXPECTED = Long.getLong("crowdtruth.urlFilter.expected", 1_000_000L);
+    private static final double URL_FILTER_FPP =
+            Double.parseDouble(System.getProperty("crowdtruth.urlFilter.fpp", "0.01"));
+
+    // Every source url_key, so lookups for URLs nobody has posted about are answered without the database.
+    // Built in main() before the server starts and only ever added to afterwards.
+    private static volatile BloomFilter KNOWN_URLS;
 
     public static void main(String[] args) throws Exception {
         Database.init();
 
+        if (args.length > 0) {
+            runCommand(args[0]);
+            return;
+        }
+
+        ExecutorService executor = createExecutor(System.getProperty("crowdtruth.executor", "fixed"));
         HttpServer server = HttpServer.create(new InetSocketAddress(PORT), 0);
-        server.createContext("/auth/register", new RegisterHandler());
-        server.createContext("/auth/login", new LoginHandler());
-        server.createContext("/sources", new SourcesHandler());
-        server.createContext("/posts", new PostsHandler());
-        server.createContext("/votes", new VotesHandler());
-        server.createContext("/users", new UsersHandler());
-        server.createContext("/search", new SearchHandler());
-        server.createContext("/stats", new StatsHandler());
-        server.setExecutor(Executors.newFixedThreadPool(8));
+        route(server, "/auth/register", new RegisterHandler());
+        route(server, "/auth/login", new LoginHandler());
+        route(server, "/auth/logout", new LogoutHandler());
+        route(server, "/sources", new SourcesHandler());
+        route(server, "/posts", new PostsHandler());
+        route(server, "/votes", new VotesHandler());
+        route(server, "/users", new UsersHandler());
+        route(server, "/search", new SearchHandler());
+        route(server, "/stats", new StatsHandler());
+        route(server, "/metrics", new MetricsHandler(executor));
+        server.setExecutor(executor);
+
+        reconcileCounters();
+        loadKnownUrls();
+        ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenance.scheduleWithFixedDelay(Main::reconcileCounters,
+                COUNTER_RECONCILE_MS, COUNTER_RECONCILE_MS, TimeUnit.MILLISECONDS);
+
+        SOURCE_EVENTS.start();
         server.start();
 
-        System.out.println("CrowdTruth API listening on http://localhost:" + PORT);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            // Open event streams would otherwise hold server.stop() for its whole grace period.
+            SOURCE_EVENTS.shutdown();
+            server.stop(1);
+            executor.shutdown();
+            maintenance.shutdown();
+            WRITE_BATCHER.shutdown();
+            AUTH_EXECUTOR.shutdown();
+            Database.shutdown();
+        }));
+
+        LOG.info("CrowdTruth API listening on http://localhost:{}", PORT);
+    }
+
+    private static void route(HttpServer server, String path, HttpHandler handler) {
+        server.createContext(path, ServerMetrics.instrument(path, handler));
+    }
+
+    // Logs the failure and answers 500, or cuts the stream if a response was already committed.
+    private static void sendServerError(HttpExchange exchange, JsonWriter json, Exception e) throws IOException {
+        LOG.error("{} {} failed", exchange.getRequestMethod(), exchange.getRequestURI().getPath(), e);
+        HttpUtil.sendError(exchange, json, 500, "Server error");
+    }
+
+    private static void reconcileCounters() {
+        try (Connection conn = Database.getWriteConnection()) {
+            COUNTERS.reconcile(conn);
+        } catch (Exception e) {
+            // Keep serving the last known totals; the next run will retry.
+            LOG.warn("Counter reconciliation failed", e);
+        }
+    }
+
+    private static void loadKnownUrls() throws SQLException {
+        long start = System.nanoTime();
+        try (Connection conn = Database.getConnection()) {
+            long sources;
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) FROM sources");
+                    ResultSet rs = stmt.executeQuery()) {
+                sources = rs.next() ? rs.getLong(1) : 0L;
+            }
+            BloomFilter filter = BloomFilter.create(Math.max(URL_FILTER_EXPECTED, sources * 2), URL_FILTER_FPP);
+            // A single pass over the covering url_key index.
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT url_key FROM sources");
+                    ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    filter.put(rs.getLong(1));
+                }
+            }
+            KNOWN_URLS = filter;
+            BloomFilter.Stats stats = filter.stats();
+            LOG.info("Loaded {} source URLs into a {} KiB filter ({} hashes) in {} ms", sources,
+                    stats.getBitCount() / 8 / 1024, stats.getHashCount(), (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    // True only when the URL has certainly never been stored as a source.
+    private static boolean isUnknownUrl(String canonicalUrl) {
+        BloomFilter filter = KNOWN_URLS;
+        return filter != null && !filter.mightContain(SecurityUtil.urlKey(canonicalUrl));
+    }
+
+    // URLs the filter passed that the database then did not have.
+    private static void recordUnknownUrls(int count) {
+        BloomFilter filter = KNOWN_URLS;
+        if (filter != null) {
+            filter.recordFalsePositives(count);
+        }
+    }
+
+    // "fixed" (default) bounds concurrent exchanges to a thread pool; "virtual" runs each exchange on its
+    // own virtual thread (Java 21+) and relies on the database pool's fair permits to cap SQLite load.
+    private static ExecutorService createExecutor(String mode) {
+        if ("virtual".equalsIgnoreCase(mode)) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Virtual threads require Java 21 or newer", e);
+            }
+        }
+        if (!"fixed".equalsIgnoreCase(mode)) {
+            throw new IllegalArgumentException("Unknown crowdtruth.executor mode: " + mode);
+        }
+        return Executors.newFixedThreadPool(Integer.getInteger("crowdtruth.executor.threads", 8));
+    }
+
+    private static void runCommand(String command) throws Exception {
+        try (Connection conn = Database.getWriteConnection()) {
+            if ("--verify-aggregates".equals(command)) {
+                int drift = Aggregates.verify(conn);
+                System.out.println(drift == 0 ? "Aggregates are consistent"
+                        : "Aggregate drift detected in " + drift + " row(s); run --rebuild-aggregates");
+                if (drift != 0) {
+                    System.exit(1);
+                }
+            } else if ("--rebuild-aggregates".equals(command)) {
+                Aggregates.rebuild(conn);
+                System.out.println("Aggregates rebuilt");
+            } else if ("--rebuild-search".equals(command)) {
+                SearchIndex.rebuild(conn);
+                System.out.println("Search index rebuilt");
+            } else {
+                System.err.println("Unknown command: " + command);
+                System.exit(2);
+            }
+        } finally {
+            Database.shutdown();
+        }
+    }
+
+    private interface ExchangeTask {
+        void run() throws IOException;
+    }
+
+    // Runs PBKDF2-bound work on the auth executor; the task sends its own response.
+    private static void submitAuthWork(HttpExchange exchange, ExchangeTask task) throws IOException {
+        String client = exchange.getRemoteAddress().getAddress().getHostAddress();
+        AuthExecutor.Admission admission = AUTH_EXECUTOR.submit(client, () -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                LOG.error("{} {} failed", exchange.getRequestMethod(), exchange.getRequestURI().getPath(), e);
+                exchange.close();
+            }
+        });
+        if (admission == AuthExecutor.Admission.CLIENT_LIMITED) {
+            HttpUtil.sendJson(exchange, 429, JsonUtil.error("Too many concurrent requests"));
+        } else if (admission == AuthExecutor.Admission.OVERLOADED) {
+            sendBusy(exchange);
+        }
+    }
+
+    private static void sendBusy(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        HttpUtil.sendJson(exchange, 503, JsonUtil.error("Server busy, please retry"));
     }
 
     private static class RegisterHandler implements HttpHandler {
@@ -45,12 +266,14 @@ public class Main {
                 return;
             }
 
-            String body = HttpUtil.readBody(exchange);
-            Map<String, String> data = JsonUtil.parseObject(body);
+            Map<String, Object> data = HttpUtil.readJsonObject(exchange);
+            if (data == null) {
+                return;
+            }
 
-            String id = data.get("id");
-            String email = data.get("email");
-            String password = data.get("password");
+            String id = JsonUtil.getString(data, "id");
+            String email = JsonUtil.getString(data, "email");
+            String password = JsonUtil.getString(data, "password");
 
             try {
                 new Account(id, email, password);
@@ -59,18 +282,23 @@ public class Main {
                 return;
             }
 
+            submitAuthWork(exchange, () -> register(exchange, id, email, password));
+        }
+
+        private void register(HttpExchange exchange, String id, String email, String password) throws IOException {
             PasswordUtil.HashedPassword hashed = PasswordUtil.hashPassword(password);
 
-            try (Connection conn = Database.getConnection();
-                    PreparedStatement stmt = conn.prepareStatement(
-                            "INSERT INTO users (id, email, password_hash, password_salt) VALUES (?, ?, ?, ?)")) {
+            try (Connection conn = Database.getWriteConnection();
+                    PreparedStatement stmt = conn.prepareStatement(Queries.INSERT_USER)) {
                 stmt.setString(1, id);
                 stmt.setString(2, email);
                 stmt.setString(3, hashed.getHashHex());
                 stmt.setString(4, hashed.getSaltHex());
-                stmt.executeUpdate();
-                HttpUtil.sendJson(exchange, 201,
-                        "{\"ok\":true,\"userId\":" + JsonUtil.quote(id) + "}");
+                ServerMetrics.executeUpdate(stmt, Queries.INSERT_USER);
+                COUNTERS.userRegistered();
+                try (JsonWriter json = HttpUtil.openJson(exchange, 201)) {
+                    json.beginObject().field("ok", true).field("userId", id).endObject();
+                }
             } catch (Exception e) {
                 HttpUtil.sendJson(exchange, 409, JsonUtil.error("Registration failed. Email may already be in use."));
             }
@@ -85,48 +313,91 @@ public class Main {
                 return;
             }
 
-            String body = HttpUtil.readBody(exchange);
-            Map<String, String> data = JsonUtil.parseObject(body);
+            Map<String, Object> data = HttpUtil.readJsonObject(exchange);
+            if (data == null) {
+                return;
+            }
 
-            String email = data.get("email");
-            String password = data.get("password");
+            String email = JsonUtil.getString(data, "email");
+            String password = JsonUtil.getString(data, "password");
 
             if (email == null || password == null) {
                 HttpUtil.sendJson(exchange, 400, JsonUtil.error("Missing email or password"));
                 return;
             }
 
-            try (Connection conn = Database.getConnection();
-                    PreparedStatement stmt = conn.prepareStatement(
-                            "SELECT id, password_hash, password_salt FROM users WHERE email = ?")) {
-                stmt.setString(1, email);
-                try (ResultSet rs = stmt.executeQuery()) {
-                    if (!rs.next()) {
-                        HttpUtil.sendJson(exchange, 401, JsonUtil.error("Invalid credentials"));
-                        return;
-                    }
-                    String hash = rs.getString("password_hash");
-                    String salt = rs.getString("password_salt");
-                    if (hash == null || salt == null || !PasswordUtil.verifyPassword(password, salt, hash)) {
-                        HttpUtil.sendJson(exchange, 401, JsonUtil.error("Invalid credentials"));
-                        return;
-                    }
-                    String userId = rs.getString("id");
-                    String token = UUID.randomUUID().toString();
-
-                    try (PreparedStatement insert = conn.prepareStatement(
-                            "INSERT INTO tokens (token, user_id, created_at) VALUES (?, ?, ?)")) {
-                        insert.setString(1, token);
-                        insert.setString(2, userId);
-                        insert.setLong(3, Instant.now().toEpochMilli());
-                        insert.executeUpdate();
+            submitAuthWork(exchange, () -> login(exchange, email, password));
+        }
+
+        private void login(HttpExchange exchange, String email, String password) throws IOException {
+            try {
+                String userId;
+                String hash;
+                String salt;
+                try (Connection conn = Database.getConnection();
+                        PreparedStatement stmt = conn.prepareStatement(Queries.USER_CREDENTIALS)) {
+                    stmt.setString(1, email);
+                    try (ResultSet rs = ServerMetrics.executeQuery(stmt, Queries.USER_CREDENTIALS)) {
+                        if (!rs.next()) {
+                            HttpUtil.sendJson(exchange, 401, JsonUtil.error("Invalid credentials"));
+                            return;
+                        }
+                        userId = rs.getString("id");
+                        hash = rs.getString("password_hash");
+                        salt = rs.getString("password_salt");
                     }
+                }
+
+                // Verify outside of any connection so PBKDF2 never pins a pooled connection.
+                if (hash == null || salt == null || !PasswordUtil.verifyPassword(password, salt, hash)) {
+                    HttpUtil.sendJson(exchange, 401, JsonUtil.error("Invalid credentials"));
+                    return;
+                }
+
+                String token = UUID.randomUUID().toString();
+                long createdAt = Instant.now().toEpochMilli();
+                try (Connection conn = Database.getWriteConnection();
+                        PreparedStatement insert = conn.prepareStatement(Queries.INSERT_TOKEN)) {
+                    insert.setString(1, token);
+                    insert.setString(2, userId);
+                    insert.setLong(3, createdAt);
+                    ServerMetrics.executeUpdate(insert, Queries.INSERT_TOKEN);
+                }
+                TOKEN_CACHE.put(token, userId, createdAt);
 
-                    HttpUtil.sendJson(exchange, 200,
-                            "{\"ok\":true,\"token\":" + JsonUtil.quote(token) + ",\"userId\":" + JsonUtil.quote(userId) + "}");
+                try (JsonWriter json = HttpUtil.openJson(exchange, 200)) {
+                    json.beginObject().field("ok", true).field("token", token).field("userId", userId).endObject();
                 }
             } catch (Exception e) {
-                HttpUtil.sendJson(exchange, 500, JsonUtil.error("Server error"));
+                sendServerError(exchange, null, e);
+            }
+        }
+    }
+
+    private static class LogoutHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                HttpUtil.sendJson(exchange, 405, JsonUtil.error("Method not allowed"));
+                return;
+            }
+
+            String token = HttpUtil.extractBearerToken(exchange);
+            if (token == null) {
+                HttpUtil.sendJson(exchange, 401, JsonUtil.error("Missing auth token"));
+                return;
+            }
+
+            try (Connection conn = Database.getWriteConnection();
+                    PreparedStatement stmt = conn.prepareStatement(Queries.DELETE_TOKEN)) {
+                stmt.setString(1, token);
+                ServerMetrics.executeUpdate(stmt, Queries.DELETE_TOKEN);
+                TOKEN_CACHE.revoke(token);
+                try (JsonWriter json = HttpUtil.openJson(exchange, 200)) {
+                    json.beginObject().field("ok", true).endObject();
+                }
+            } catch (Exception e) {
+                sendServerError(exchange, null, e);
             }
         }
     }
@@ -140,41 +411,94 @@ public class Main {
             Map<String, String> query = HttpUtil.parseQuery(uri.getRawQuery());
 
             if ("GET".equalsIgnoreCase(method)) {
-                String sourceId = null;
-                if (path.startsWith("/sources/")) {
-                    sourceId = path.substring("/sources/".length());
+                String rawId = null;
+                boolean summary = "summary".equals(query.get("fields"));
+                if ("/sources/summary".equals(path)) {
+                    summary = true;
+                    rawId = query.get("id");
+                } else if (path.startsWith("/sources/")) {
+                    rawId = path.substring("/sources/".length());
+                    if (rawId.endsWith("/posts")) {
+                        handleGetSourcePosts(exchange,
+                                Ids.parse(rawId.substring(0, rawId.length() - "/posts".length())), query);
+                        return;
+                    }
+                    if (rawId.endsWith("/events")) {
+                        handleSourceEvents(exchange,
+                                Ids.parse(rawId.substring(0, rawId.length() - "/events".length())));
+                        return;
+                    }
                 }
                 String url = query.get("url");
-                if (sourceId == null && url == null) {
+                if (rawId == null && url == null) {
                     HttpUtil.sendJson(exchange, 400, JsonUtil.error("Missing source id or url"));
                     return;
                 }
-                handleGetSource(exchange, sourceId, url);
+                Long sourceId = null;
+                if (rawId != null) {
+                    sourceId = Ids.parse(rawId);
+                    if (sourceId == null) {
+                        HttpUtil.sendJson(exchange, 404, JsonUtil.error("Source not found"));
+                        return;
+                    }
+                } else {
+                    // Sources are stored under their canonical URL, so no other spelling can exist.
+                    url = SecurityUtil.canonicalizeUrl(url);
+                    if (url == null || isUnknownUrl(url)) {
+                        HttpUtil.sendJson(exchange, 404, JsonUtil.error("Source not found"));
+                        return;
+                    }
+                }
+                if (summary) {
+                    handleGetSourceSummary(exchange, sourceId, url);
+                } else {
+                    handleGetSource(exchange, sourceId, url);
+                }
+                return;
+            }
+
+            if ("POST".equalsIgnoreCase(method) && "/sources/batch".equals(path)) {
+                handleBatchSummary(exchange);
                 return;
             }
 
             if ("POST".equalsIgnoreCase(method)) {
-                String body = HttpUtil.readBody(exchange);
-                Map<String, String> data = JsonUtil.parseObject(body);
-                String url = data.get("url");
-                String title = data.get("title");
+                Map<String, Object> data = HttpUtil.readJsonObject(exchange);
+                if (data == null) {
+                    return;
+                }
+                String url = JsonUtil.getString(data, "url");
+                String title = JsonUtil.getString(data, "title");
                 
                 String urlError = SecurityUtil.validateUrl(url);
                 if (urlError != null) {
                     HttpUtil.sendJson(exchange, 400, JsonUtil.error(urlError));
                     return;
                 }
+                url = SecurityUtil.canonicalizeUrl(url);
+                if (url == null) {
+                    HttpUtil.sendJson(exchange, 400, JsonUtil.error("Invalid URL format"));
+                    return;
+                }
                 
                 if (title != null) {
                     title = SecurityUtil.sanitizeInput(title, 200);
                 }
                 
-                try (Connection conn = Database.getConnection()) {
-                    String sourceId = upsertSource(conn, url, title);
-                    HttpUtil.sendJson(exchange, 201,
-                            "{\"ok\":true,\"sourceId\":" + JsonUtil.quote(sourceId) + "}");
+                try (Connection conn = Database.getWriteConnection()) {
+                    conn.setAutoCommit(false);
+                    UpsertedSource source = upsertSource(conn, url, title);
+                    conn.commit();
+                    if (source.created) {
+                        COUNTERS.sourceCreated();
+                    }
+                    rememberSource(source);
+                    invalidateSource(source.id);
+                    try (JsonWriter json = HttpUtil.openJson(exchange, 201)) {
+                        json.beginObject().field("ok", true).field("sourceId", Ids.format(source.id)).endObject();
+                    }
                 } catch (Exception e) {
-                    HttpUtil.sendJson(exchange, 500, JsonUtil.error("Server error"));
+                    sendServerError(exchange, null, e);
                 }
                 return;
             }
@@ -182,30 +506,161 @@ public class Main {
             HttpUtil.sendJson(exchange, 405, JsonUtil.error("Method not allowed"));
         }
 
-        private void handleGetSource(HttpExchange exchange, String sourceId, String url) throws IOException {
-            try (Connection conn = Database.getConnection()) {
-                if (sourceId == null) {
-                    try (PreparedStatement stmt = conn.prepareStatement(
-                            "SELECT id FROM sources WHERE url = ?")) {
-                        stmt.setString(1, url);
-                        try (ResultSet rs = stmt.executeQuery()) {
-                            if (!rs.next()) {
-                                HttpUtil.sendJson(exchange, 404, JsonUtil.error("Source not found"));
-                                return;
-                            }
-                            sourceId = rs.getString("id");
+        private void handleGetSource(HttpExchange exchange, Long sourceId, String url) throws IOException {
+            sendSource(exchange, SOURCE_CACHE, SOURCE_RENDERS, sourceId, url, Main::writeSource);
+        }
+
+        private void handleGetSourceSummary(HttpExchange exchange, Long sourceId, String url) throws IOException {
+            sendSource(exchange, SUMMARY_CACHE, SUMMARY_RENDERS, sourceId, url,
+                    (json, conn, id) -> writeSourceSummary(json, conn, id, null) != null);
+        }
+
+        private void handleBatchSummary(HttpExchange exchange) throws IOException {
+            Map<String, Object> data = HttpUtil.readJsonObject(exchange);
+            if (data == null) {
+                return;
+            }
+            List<String> urls = JsonUtil.getStringList(data, "urls");
+            List<String> ids = JsonUtil.getStringList(data, "ids");
+            if ((urls == null) == (ids == null)) {
+                HttpUtil.sendJson(exchange, 400, JsonUtil.error("Provide either urls or ids"));
+                return;
+            }
+            boolean byUrl = urls != null;
+            Set<String> keys = new LinkedHashSet<>(byUrl ? urls : ids);
+            if (keys.isEmpty()) {
+                HttpUtil.sendJson(exchange, 400, JsonUtil.error("Batch is empty"));
+                return;
+            }
+            if (keys.size() > MAX_BATCH_SIZE) {
+                HttpUtil.sendJson(exchange, 400, JsonUtil.error("Batch too large (max " + MAX_BATCH_SIZE + ")"));
+                return;
+            }
+
+            // Lookup key (canonical url or id) -> the keys as given, so missing ones are reported as sent.
+            Map<String, List<String>> requested = new LinkedHashMap<>();
+            List<String> missing = new ArrayList<>();
+            for (String key : keys) {
+                String lookup = byUrl ? SecurityUtil.canonicalizeUrl(key) : canonicalId(key);
+                if (lookup == null || (byUrl && isUnknownUrl(lookup))) {
+                    missing.add(key);
+                } else {
+                    requested.computeIfAbsent(lookup, k -> new ArrayList<>()).add(key);
+                }
+            }
+
+            if (requested.isEmpty()) {
+                // Nothing could exist (malformed keys, or URLs the filter has never seen), so skip the database.
+                try (JsonWriter json = HttpUtil.openJson(exchange, 200)) {
+                    json.beginObject().field("ok", true).name("sources").beginArray().endArray()
+                        .name("missing").beginArray();
+                    for (String key : missing) {
+                        json.value(key);
+                    }
+                    json.endArray().endObject();
+                }
+                return;
+            }
+
+            String sql = Queries.sourceSummariesIn(byUrl, requested.size());
+            JsonWriter json = HttpUtil.openJson(exchange, 200);
+            try (Connection conn = Database.getConnection();
+                    PreparedStatement stmt = conn.prepareStatement(sql)) {
+                int i = 1;
+                for (String lookup : requested.keySet()) {
+                    stmt.setLong(i++, byUrl ? SecurityUtil.urlKey(lookup) : Long.parseLong(lookup));
+                }
+                try (ResultSet rs = ServerMetrics.executeQuery(stmt, sql)) {
+                    json.beginObject().field("ok", true).name("sources").beginArray();
+                    while (rs.next()) {
+                        // url_key is a hash, so also skip any colliding row for a url nobody asked for.
+                        if (requested.remove(byUrl ? rs.getString("url") : Ids.format(rs.getLong("id"))) != null) {
+                            writeSummary(json, rs);
                         }
                     }
+                    if (byUrl) {
+                        recordUnknownUrls(requested.size());
+                    }
+                    requested.values().forEach(missing::addAll);
+                    json.endArray().name("missing").beginArray();
+                    for (String key : missing) {
+                        json.value(key);
+                    }
+                    json.endArray().endObject();
                 }
+                json.close();
+            } catch (Exception e) {
+                sendServerError(exchange, json, e);
+            }
+        }
+
+        private static String canonicalId(String raw) {
+            Long id = Ids.parse(raw);
+            return id == null ? null : Ids.format(id);
+        }
 
-                String json = buildSourceJson(conn, sourceId);
-                if (json == null) {
-                    HttpUtil.sendJson(exchange, 404, JsonUtil.error("Source not found"));
+        private void handleSourceEvents(HttpExchange exchange, Long sourceId) throws IOException {
+            if (sourceId == null) {
+                HttpUtil.sendJson(exchange, 404, JsonUtil.error("Source not found"));
+                return;
+            }
+            SourceEvents.Snapshot current;
+            try {
+                current = loadReputations(List.of(sourceId)).get(sourceId);
+            } catch (Exception e) {
+                sendServerError(exchange, null, e);
+                return;
+            }
+            if (current == null) {
+                HttpUtil.sendJson(exchange, 404, JsonUtil.error("Source not found"));
+                return;
+            }
+            // A reconnecting EventSource sends the last id it saw; skip the snapshot if nothing changed since.
+            String lastEventId = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+            if (lastEventId != null && lastEventId.trim().equals(Long.toString(current.getVersion()))) {
+                current = null;
+            }
+            if (!SOURCE_EVENTS.subscribe(exchange, sourceId, current)) {
+                exchange.getResponseHeaders().set("Retry-After", "30");
+                HttpUtil.sendJson(exchange, 503, JsonUtil.error("Too many open event streams"));
+                return;
+            }
+            // Open streams are counted by crowdtruth_event_streams_open, not as requests in flight.
+            ServerMetrics.streamStarted(exchange);
+        }
+
+        private void handleGetSourcePosts(HttpExchange exchange, Long sourceId, Map<String, String> query)
+                throws IOException {
+            if (sourceId == null) {
+                HttpUtil.sendJson(exchange, 404, JsonUtil.error("Source not found"));
+                return;
+            }
+            Integer limit = JsonUtil.parseInt(query.getOrDefault("limit", "20"));
+            if (limit == null || limit < 1) {
+                HttpUtil.sendJson(exchange, 400, JsonUtil.error("Invalid limit"));
+                return;
+            }
+            if (limit > 100) limit = 100;
+
+            long[] after = null;
+            String cursor = query.get("cursor");
+            if (cursor != null && !cursor.isEmpty()) {
+                after = decodePostCursor(cursor);
+                if (after == null) {
+                    HttpUtil.sendJson(exchange, 400, JsonUtil.error("Invalid cursor"));
                     return;
                 }
-                HttpUtil.sendJson(exchange, 200, json);
+            }
+
+            JsonWriter json = HttpUtil.openJson(exchange, 200);
+            try (Connection conn = Database.getConnection()) {
+                json.beginObject().field("ok", true).field("sourceId", Ids.format(sourceId))
+                    .name("posts").beginArray();
+                String nextCursor = writeSourcePosts(json, conn, sourceId, after, limit);
+                json.endArray().field("nextCursor", nextCursor).endObject();
+                json.close();
             } catch (Exception e) {
-                HttpUtil.sendJson(exchange, 500, JsonUtil.error("Server error"));
+                sendServerError(exchange, json, e);
             }
         }
     }
@@ -223,18 +678,28 @@ public class Main {
                 return;
             }
 
-            String body = HttpUtil.readBody(exchange);
-            Map<String, String> data = JsonUtil.parseObject(body);
+            Map<String, Object> data = HttpUtil.readJsonObject(exchange);
+            if (data == null) {
+                return;
+            }
 
-            String sourceId = data.get("sourceId");
-            String url = data.get("url");
-            String title = data.get("title");
-            String comment = data.get("comment");
+            String sourceId = JsonUtil.getString(data, "sourceId");
+            String url = JsonUtil.getString(data, "url");
+            String title = JsonUtil.getString(data, "title");
+            String comment = JsonUtil.getString(data, "comment");
 
             if ((sourceId == null || sourceId.isEmpty()) && (url == null || url.isEmpty())) {
                 HttpUtil.sendJson(exchange, 400, JsonUtil.error("Missing sourceId or url"));
                 return;
             }
+            Long givenSourceId = null;
+            if (sourceId != null && !sourceId.isEmpty()) {
+                givenSourceId = Ids.parse(sourceId);
+                if (givenSourceId == null) {
+                    HttpUtil.sendJson(exchange, 400, JsonUtil.error("Invalid sourceId"));
+                    return;
+                }
+            }
             
             String titleError = SecurityUtil.validateTitle(title);
             if (titleError != null) {
@@ -248,59 +713,116 @@ public class Main {
                 return;
             }
             
+            String canonicalUrl = null;
             if (url != null) {
                 String urlError = SecurityUtil.validateUrl(url);
                 if (urlError != null) {
                     HttpUtil.sendJson(exchange, 400, JsonUtil.error(urlError));
                     return;
                 }
+                canonicalUrl = SecurityUtil.canonicalizeUrl(url);
+                if (canonicalUrl == null) {
+                    HttpUtil.sendJson(exchange, 400, JsonUtil.error("Invalid URL format"));
+                    return;
+                }
             }
             
-            title = SecurityUtil.sanitizeInput(title, 200);
-            comment = SecurityUtil.sanitizeInput(comment, 5000);
+            String cleanTitle = SecurityUtil.sanitizeInput(title, 200);
+            String cleanComment = SecurityUtil.sanitizeInput(comment, 5000);
+            Long knownSourceId = givenSourceId;
+            String givenUrl = canonicalUrl;
 
-            try (Connection conn = Database.getConnection()) {
-                if (sourceId == null || sourceId.isEmpty()) {
-                    sourceId = upsertSource(conn, url, title);
+            try {
+                CreatedPost post = WRITE_BATCHER.execute(
+                        conn -> insertPost(conn, userId, knownSourceId, givenUrl, cleanTitle, cleanComment),
+                        created -> {
+                            COUNTERS.postCreated();
+                            if (created.upserted != null) {
+                                if (created.upserted.created) {
+                                    COUNTERS.sourceCreated();
+                                }
+                                rememberSource(created.upserted);
+                            }
+                            invalidateSource(created.sourceId);
+                        });
+
+                try (JsonWriter json = HttpUtil.openJson(exchange, 201)) {
+                    json.beginObject()
+                        .field("ok", true)
+                        .field("postId", Ids.format(post.postId))
+                        .field("sourceId", Ids.format(post.sourceId))
+                        .field("userId", userId)
+                        .field("title", cleanTitle)
+                        .field("comment", cleanComment)
+                        .field("createdAt", post.createdAt)
+                        .field("sourceUrl", post.sourceUrl)
+                        .field("sourceTitle", post.sourceTitle)
+                        .endObject();
                 }
-                long createdAt = Instant.now().toEpochMilli();
-                String postId = UUID.randomUUID().toString();
-                try (PreparedStatement stmt = conn.prepareStatement(
-                        "INSERT INTO posts (id, source_id, user_id, title, comment, created_at) VALUES (?, ?, ?, ?, ?, ?)")) {
-                    stmt.setString(1, postId);
-                    stmt.setString(2, sourceId);
-                    stmt.setString(3, userId);
-                    stmt.setString(4, title);
-                    stmt.setString(5, comment);
-                    stmt.setLong(6, createdAt);
-                    stmt.executeUpdate();
-                }
-
-                String sourceUrl = url;
-                String sourceTitle = null;
-                try (PreparedStatement stmt = conn.prepareStatement(
-                        "SELECT url, title FROM sources WHERE id = ?")) {
-                    stmt.setString(1, sourceId);
-                    try (ResultSet rs = stmt.executeQuery()) {
-                        if (rs.next()) {
-                            sourceUrl = rs.getString("url");
-                            sourceTitle = rs.getString("title");
-                        }
+            } catch (WriteBatcher.QueueFullException | WriteBatcher.CommitTimeoutException
+                    | WriteBatcher.BatchFailedException e) {
+                sendBusy(exchange);
+            } catch (Exception e) {
+                sendServerError(exchange, null, e);
+            }
+        }
+
+        private static CreatedPost insertPost(Connection conn, String userId, Long givenSourceId, String url,
+                String title, String comment) throws SQLException {
+            UpsertedSource upserted = null;
+            long sourceId;
+            if (givenSourceId != null) {
+                sourceId = givenSourceId;
+            } else {
+                upserted = upsertSource(conn, url, title);
+                sourceId = upserted.id;
+            }
+            // Taking created_at from the id keeps the two orderings identical.
+            long postId = Ids.next();
+            long createdAt = Ids.timestampOf(postId);
+            try (PreparedStatement stmt = conn.prepareStatement(Queries.INSERT_POST)) {
+                stmt.setLong(1, postId);
+                stmt.setLong(2, sourceId);
+                stmt.setString(3, userId);
+                stmt.setString(4, title);
+                stmt.setString(5, comment);
+                stmt.setLong(6, createdAt);
+                ServerMetrics.executeUpdate(stmt, Queries.INSERT_POST);
+            }
+            Aggregates.recordPost(conn, sourceId, postId);
+            SearchIndex.indexPost(conn, postId);
+
+            String sourceUrl = url;
+            String sourceTitle = null;
+            try (PreparedStatement stmt = conn.prepareStatement(Queries.SOURCE_URL_TITLE)) {
+                stmt.setLong(1, sourceId);
+                try (ResultSet rs = ServerMetrics.executeQuery(stmt, Queries.SOURCE_URL_TITLE)) {
+                    if (rs.next()) {
+                        sourceUrl = rs.getString("url");
+                        sourceTitle = rs.getString("title");
                     }
                 }
-
-                HttpUtil.sendJson(exchange, 201,
-                        "{\"ok\":true,\"postId\":" + JsonUtil.quote(postId) +
-                        ",\"sourceId\":" + JsonUtil.quote(sourceId) +
-                        ",\"userId\":" + JsonUtil.quote(userId) +
-                        ",\"title\":" + JsonUtil.quote(title) +
-                        ",\"comment\":" + JsonUtil.quote(comment) +
-                        ",\"createdAt\":" + createdAt +
-                        ",\"sourceUrl\":" + JsonUtil.quote(sourceUrl) +
-                        ",\"sourceTitle\":" + JsonUtil.quote(sourceTitle) + "}");
-            } catch (Exception e) {
-                HttpUtil.sendJson(exchange, 500, JsonUtil.error("Server error"));
             }
+            return new CreatedPost(postId, sourceId, upserted, createdAt, sourceUrl, sourceTitle);
+        }
+    }
+
+    private static final class CreatedPost {
+        private final long postId;
+        private final long sourceId;
+        private final UpsertedSource upserted;
+        private final long createdAt;
+        private final String sourceUrl;
+        private final String sourceTitle;
+
+        private CreatedPost(long postId, long sourceId, UpsertedSource upserted, long createdAt,
+                String sourceUrl, String sourceTitle) {
+            this.postId = postId;
+            this.sourceId = sourceId;
+            this.upserted = upserted;
+            this.createdAt = createdAt;
+            this.sourceUrl = sourceUrl;
+            this.sourceTitle = sourceTitle;
         }
     }
 
@@ -317,17 +839,24 @@ public class Main {
                 return;
             }
 
-            String body = HttpUtil.readBody(exchange);
-            Map<String, String> data = JsonUtil.parseObject(body);
+            Map<String, Object> data = HttpUtil.readJsonObject(exchange);
+            if (data == null) {
+                return;
+            }
 
-            String postId = data.get("postId");
-            String agreeRaw = data.get("agree");
-            String ratingRaw = data.get("rating");
+            String postIdRaw = JsonUtil.getString(data, "postId");
+            String agreeRaw = JsonUtil.getString(data, "agree");
+            String ratingRaw = JsonUtil.getString(data, "rating");
 
-            if (postId == null || agreeRaw == null || ratingRaw == null) {
+            if (postIdRaw == null || agreeRaw == null || ratingRaw == null) {
                 HttpUtil.sendJson(exchange, 400, JsonUtil.error("Missing postId, agree, or rating"));
                 return;
             }
+            Long postId = Ids.parse(postIdRaw);
+            if (postId == null) {
+                HttpUtil.sendJson(exchange, 400, JsonUtil.error("Invalid postId"));
+                return;
+            }
 
             boolean agree = JsonUtil.parseBoolean(agreeRaw);
             Integer rating = JsonUtil.parseInt(ratingRaw);
@@ -337,19 +866,37 @@ public class Main {
                 return;
             }
 
-            try (Connection conn = Database.getConnection();
-                    PreparedStatement stmt = conn.prepareStatement(
-                            "INSERT INTO votes (id, post_id, user_id, agree, rating, created_at) VALUES (?, ?, ?, ?, ?, ?)")) {
-                stmt.setString(1, UUID.randomUUID().toString());
-                stmt.setString(2, postId);
-                stmt.setString(3, userId);
-                stmt.setInt(4, agree ? 1 : 0);
-                stmt.setInt(5, rating);
-                stmt.setLong(6, Instant.now().toEpochMilli());
-                stmt.executeUpdate();
-                HttpUtil.sendJson(exchange, 201, "{\"ok\":true}");
+            try {
+                WRITE_BATCHER.execute(conn -> {
+                    try (PreparedStatement stmt = conn.prepareStatement(Queries.INSERT_VOTE)) {
+                        long voteId = Ids.next();
+                        stmt.setLong(1, voteId);
+                        stmt.setLong(2, postId);
+                        stmt.setString(3, userId);
+                        stmt.setInt(4, agree ? 1 : 0);
+                        stmt.setInt(5, rating);
+                        stmt.setLong(6, Ids.timestampOf(voteId));
+                        ServerMetrics.executeUpdate(stmt, Queries.INSERT_VOTE);
+                    }
+                    return Aggregates.recordVote(conn, postId, agree, rating);
+                }, sourceId -> {
+                    COUNTERS.voteCast();
+                    invalidateSource(sourceId);
+                });
+                try (JsonWriter json = HttpUtil.openJson(exchange, 201)) {
+                    json.beginObject().field("ok", true).endObject();
+                }
+            } catch (WriteBatcher.QueueFullException | WriteBatcher.CommitTimeoutException
+                    | WriteBatcher.BatchFailedException e) {
+                sendBusy(exchange);
+            } catch (SQLException e) {
+                if (WriteBatcher.isConstraintViolation(e)) {
+                    HttpUtil.sendJson(exchange, 409, JsonUtil.error("Already voted or invalid post"));
+                } else {
+                    sendServerError(exchange, null, e);
+                }
             } catch (Exception e) {
-                HttpUtil.sendJson(exchange, 409, JsonUtil.error("Already voted or invalid post"));
+                sendServerError(exchange, null, e);
             }
         }
     }
@@ -360,12 +907,24 @@ public class Main {
             HttpUtil.sendJson(exchange, 401, JsonUtil.error("Missing auth token"));
             return null;
         }
+        if (TOKEN_CACHE.isKnownInvalid(token)) {
+            HttpUtil.sendJson(exchange, 401, JsonUtil.error("Invalid token"));
+            return null;
+        }
+        TokenCache.Session session = TOKEN_CACHE.get(token);
+        if (session != null) {
+            if (SecurityUtil.isTokenExpired(session.getCreatedAt())) {
+                HttpUtil.sendJson(exchange, 401, JsonUtil.error("Token expired"));
+                return null;
+            }
+            return session.getUserId();
+        }
         try (Connection conn = Database.getConnection();
-                PreparedStatement stmt = conn.prepareStatement(
-                        "SELECT user_id, created_at FROM tokens WHERE token = ?")) {
+                PreparedStatement stmt = conn.prepareStatement(Queries.TOKEN_SESSION)) {
             stmt.setString(1, token);
-            try (ResultSet rs = stmt.executeQuery()) {
+            try (ResultSet rs = ServerMetrics.executeQuery(stmt, Queries.TOKEN_SESSION)) {
                 if (!rs.next()) {
+                    TOKEN_CACHE.putInvalid(token);
                     HttpUtil.sendJson(exchange, 401, JsonUtil.error("Invalid token"));
                     return null;
                 }
@@ -374,137 +933,365 @@ public class Main {
                     HttpUtil.sendJson(exchange, 401, JsonUtil.error("Token expired"));
                     return null;
                 }
-                return rs.getString("user_id");
+                String userId = rs.getString("user_id");
+                TOKEN_CACHE.put(token, userId, createdAt);
+                return userId;
             }
         } catch (Exception e) {
-            HttpUtil.sendJson(exchange, 500, JsonUtil.error("Server error"));
+            sendServerError(exchange, null, e);
             return null;
         }
     }
 
-    private static String upsertSource(Connection conn, String url, String title) throws Exception {
-        try (PreparedStatement find = conn.prepareStatement(
-                "SELECT id, title FROM sources WHERE url = ?")) {
-            find.setString(1, url);
-            try (ResultSet rs = find.executeQuery()) {
-                if (rs.next()) {
-                    String existingId = rs.getString("id");
-                    String existingTitle = rs.getString("title");
-                    if (title != null && !title.isEmpty() && (existingTitle == null || existingTitle.isEmpty())) {
-                        try (PreparedStatement update = conn.prepareStatement(
-                                "UPDATE sources SET title = ? WHERE id = ?")) {
-                            update.setString(1, title);
-                            update.setString(2, existingId);
-                            update.executeUpdate();
-                        }
+    private static final class UpsertedSource {
+        private final long id;
+        private final String url;
+        private final boolean created;
+        private final boolean titled;
+
+        private UpsertedSource(long id, String url, boolean created, boolean titled) {
+            this.id = id;
+            this.url = url;
+            this.created = created;
+            this.titled = titled;
+        }
+    }
+
+    private static final class SourceVersion {
+        private final long id;
+        private final String etag;
+
+        private SourceVersion(long id, long version) {
+            this.id = id;
+            this.etag = "\"" + Ids.format(id) + "." + version + "\"";
+        }
+    }
+
+    @FunctionalInterface
+    private interface SourceRenderer {
+        // Returns false, having written nothing, if the source does not exist.
+        boolean write(JsonWriter json, Connection conn, long sourceId) throws Exception;
+    }
+
+    private static final class RenderedSource {
+        private final SourceVersion version;
+        private final Compression.Body body;
+
+        private RenderedSource(SourceVersion version, Compression.Body body) {
+            this.version = version;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Answers GET /sources or /sources/summary: from the cache if possible,
+     * then with a 304 if the client's copy is current, and otherwise with a
+     * render shared by every request for the same source that misses while
+     * it runs, so a burst of readers costs one set of queries. The waiters
+     * also share the rendered body and its compressed forms. A request only
+     * joins a render that started after the source's last invalidation, so
+     * a client never gets a body older than a write it has already seen
+     * commit.
+     */
+    private static void sendSource(HttpExchange exchange, SourceCache cache,
+            SingleFlight<String, RenderedSource> renders, Long sourceId, String url, SourceRenderer renderer)
+            throws IOException {
+        SourceCache.Entry cached = sourceId != null ? cache.getById(sourceId) : cache.getByUrl(url);
+        if (cached != null) {
+            HttpUtil.sendJson(exchange, cached.getJson(), cached.getEtag());
+            return;
+        }
+
+        RenderedSource rendered;
+        try {
+            if (exchange.getRequestHeaders().containsKey("If-None-Match")) {
+                // Revalidation needs only the version, so check it before joining a full render.
+                try (Connection conn = Database.getConnection()) {
+                    SourceVersion version = readSourceVersion(conn, sourceId, url);
+                    if (version == null) {
+                        HttpUtil.sendJson(exchange, 404, JsonUtil.error("Source not found"));
+                        return;
+                    }
+                    if (HttpUtil.notModified(exchange, version.etag)) {
+                        return;
                     }
-                    return existingId;
                 }
             }
+            String key = sourceId != null ? "id:" + sourceId : "url:" + url;
+            SourceIdCache.Entry known = sourceId == null ? SOURCE_IDS.peek(url) : null;
+            Long id = known != null ? Long.valueOf(known.getSourceId()) : sourceId;
+            long stamp = cache.stamp();
+            rendered = renders.run(key, stamp, started -> !cache.changedSince(id, started),
+                    () -> renderSource(cache, sourceId, url, renderer, stamp));
+        } catch (TimeoutException e) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            HttpUtil.sendJson(exchange, 503, JsonUtil.error("Source is busy, try again"));
+            return;
+        } catch (Exception e) {
+            sendServerError(exchange, null, e);
+            return;
         }
-
-        String id = UUID.randomUUID().toString();
-        try (PreparedStatement insert = conn.prepareStatement(
-                "INSERT INTO sources (id, url, title) VALUES (?, ?, ?)")) {
-            insert.setString(1, id);
-            insert.setString(2, url);
-            insert.setString(3, title);
-            insert.executeUpdate();
+        if (rendered == null) {
+            HttpUtil.sendJson(exchange, 404, JsonUtil.error("Source not found"));
+            return;
         }
-        return id;
+        HttpUtil.sendJson(exchange, rendered.body, rendered.version.etag);
     }
 
-    private static String buildSourceJson(Connection conn, String sourceId) throws Exception {
-        String url;
-        String title;
+    // Renders one source response and caches it unless it changed since stamp; null if there is no such source.
+    private static RenderedSource renderSource(SourceCache cache, Long sourceId, String url, SourceRenderer renderer,
+            long stamp) throws Exception {
+        try (Connection conn = Database.getConnection()) {
+            SourceVersion version = readSourceVersion(conn, sourceId, url);
+            if (version == null) {
+                return null;
+            }
+            JsonWriter json = JsonWriter.inMemory();
+            if (!renderer.write(json, conn, version.id)) {
+                return null;
+            }
+            Compression.Body body = new Compression.Body(json.toByteArray());
+            cache.put(version.id, url, body, version.etag, stamp);
+            return new RenderedSource(version, body);
+        }
+    }
 
-        try (PreparedStatement stmt = conn.prepareStatement(
-                "SELECT url, title FROM sources WHERE id = ?")) {
-            stmt.setString(1, sourceId);
-            try (ResultSet rs = stmt.executeQuery()) {
+    /**
+     * Looks up a source by id, or by canonical url when sourceId is null, and
+     * returns its id and current ETag, or null if there is no such source.
+     * Read this before rendering: a write landing in between then leaves the
+     * ETag older than the body, which only costs the client a full response
+     * later, never a 304 for data it does not have.
+     */
+    private static SourceVersion readSourceVersion(Connection conn, Long sourceId, String url) throws SQLException {
+        String sql = sourceId != null ? Queries.SOURCE_VERSION_BY_ID : Queries.SOURCE_VERSION_BY_URL;
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            if (sourceId != null) {
+                stmt.setLong(1, sourceId);
+            } else {
+                stmt.setLong(1, SecurityUtil.urlKey(url));
+                stmt.setString(2, url);
+            }
+            try (ResultSet rs = ServerMetrics.executeQuery(stmt, sql)) {
                 if (!rs.next()) {
+                    if (sourceId == null) {
+                        recordUnknownUrls(1);
+                    }
                     return null;
                 }
-                url = rs.getString("url");
-                title = rs.getString("title");
+                return new SourceVersion(rs.getLong("id"), rs.getLong("version"));
             }
         }
+    }
 
-        double reputation = 0.0;
-        int agreeCount = 0;
-        int disagreeCount = 0;
-        int postCount = 0;
+    // url must already be canonical.
+    private static UpsertedSource upsertSource(Connection conn, String url, String title) throws SQLException {
+        boolean hasTitle = title != null && !title.isEmpty();
+        SourceIdCache.Entry known = SOURCE_IDS.get(url);
+        if (known != null && (known.isTitled() || !hasTitle)) {
+            return new UpsertedSource(known.getSourceId(), url, false, known.isTitled());
+        }
 
-        try (PreparedStatement stats = conn.prepareStatement(
-                "SELECT AVG(v.rating) AS avg_rating, " +
-                "SUM(CASE WHEN v.agree = 1 THEN 1 ELSE 0 END) AS agree_count, " +
-                "SUM(CASE WHEN v.agree = 0 THEN 1 ELSE 0 END) AS disagree_count " +
-                "FROM votes v JOIN posts p ON p.id = v.post_id WHERE p.source_id = ?")) {
-            stats.setString(1, sourceId);
-            try (ResultSet rs = stats.executeQuery()) {
+        long newId = Ids.next();
+        Long writtenId = null;
+        try (PreparedStatement upsert = conn.prepareStatement(Queries.UPSERT_SOURCE)) {
+            upsert.setLong(1, newId);
+            upsert.setString(2, url);
+            upsert.setLong(3, SecurityUtil.urlKey(url));
+            upsert.setString(4, title);
+            try (ResultSet rs = ServerMetrics.executeQuery(upsert, Queries.UPSERT_SOURCE)) {
                 if (rs.next()) {
-                    reputation = rs.getDouble("avg_rating");
-                    agreeCount = rs.getInt("agree_count");
-                    disagreeCount = rs.getInt("disagree_count");
+                    writtenId = rs.getLong("id");
                 }
             }
         }
 
-        try (PreparedStatement count = conn.prepareStatement(
-                "SELECT COUNT(*) AS post_count FROM posts WHERE source_id = ?")) {
-            count.setString(1, sourceId);
-            try (ResultSet rs = count.executeQuery()) {
-                if (rs.next()) {
-                    postCount = rs.getInt("post_count");
+        if (writtenId != null && writtenId == newId) {
+            Aggregates.recordSource(conn, newId);
+            SearchIndex.indexSource(conn, newId);
+            return new UpsertedSource(newId, url, true, hasTitle);
+        }
+        if (writtenId != null) {
+            // The update branch only fires when the previous title was empty.
+            SearchIndex.reindexSource(conn, writtenId, null);
+            Aggregates.recordSourceChange(conn, writtenId);
+            return new UpsertedSource(writtenId, url, false, true);
+        }
+        try (PreparedStatement find = conn.prepareStatement(Queries.SOURCE_BY_URL)) {
+            find.setLong(1, SecurityUtil.urlKey(url));
+            find.setString(2, url);
+            try (ResultSet rs = ServerMetrics.executeQuery(find, Queries.SOURCE_BY_URL)) {
+                if (!rs.next()) {
+                    throw new SQLException("Source vanished during upsert: " + url);
+                }
+                String existingTitle = rs.getString("title");
+                return new UpsertedSource(rs.getLong("id"), url, false,
+                        existingTitle != null && !existingTitle.isEmpty());
+            }
+        }
+    }
+
+    // Call once the transaction that produced the upsert has committed.
+    private static void rememberSource(UpsertedSource source) {
+        SOURCE_IDS.put(source.url, source.id, source.titled);
+        BloomFilter filter = KNOWN_URLS;
+        if (filter != null) {
+            filter.put(SecurityUtil.urlKey(source.url));
+        }
+    }
+
+    private static void invalidateSource(long sourceId) {
+        SOURCE_CACHE.invalidate(sourceId);
+        SUMMARY_CACHE.invalidate(sourceId);
+        SOURCE_EVENTS.sourceChanged(sourceId);
+    }
+
+    // The compact reputation frame pushed to event streams, for every listed source that exists.
+    private static Map<Long, SourceEvents.Snapshot> loadReputations(Collection<Long> sourceIds) throws Exception {
+        Map<Long, SourceEvents.Snapshot> snapshots = new HashMap<>();
+        String sql = Queries.sourceSummariesIn(false, sourceIds.size());
+        try (Connection conn = Database.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            int i = 1;
+            for (long sourceId : sourceIds) {
+                stmt.setLong(i++, sourceId);
+            }
+            try (ResultSet rs = ServerMetrics.executeQuery(stmt, sql)) {
+                while (rs.next()) {
+                    long sourceId = rs.getLong("id");
+                    JsonWriter json = JsonWriter.inMemory();
+                    json.beginObject()
+                        .field("sourceId", Ids.format(sourceId))
+                        .field("reputation", Aggregates.reputation(rs.getLong("rating_sum"), rs.getLong("vote_count")))
+                        .field("agreeCount", rs.getInt("agree_count"))
+                        .field("disagreeCount", rs.getInt("disagree_count"))
+                        .field("postCount", rs.getInt("post_count"))
+                        .endObject();
+                    snapshots.put(sourceId, new SourceEvents.Snapshot(rs.getLong("version"), json.toByteArray()));
+                }
+            }
+        }
+        return snapshots;
+    }
+
+    // Writes the summary object and returns the source id, or null (writing nothing) if not found.
+    // Package-private, like writeSource, so Benchmarks can time it.
+    static Long writeSourceSummary(JsonWriter json, Connection conn, Long sourceId, String url)
+            throws Exception {
+        String sql = sourceId != null ? Queries.SOURCE_SUMMARY_BY_ID : Queries.SOURCE_SUMMARY_BY_URL;
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            if (sourceId != null) {
+                stmt.setLong(1, sourceId);
+            } else {
+                stmt.setLong(1, SecurityUtil.urlKey(url));
+                stmt.setString(2, url);
+            }
+            try (ResultSet rs = ServerMetrics.executeQuery(stmt, sql)) {
+                if (!rs.next()) {
+                    return null;
                 }
+                writeSummary(json, rs);
+                return rs.getLong("id");
             }
         }
+    }
+
+    private static void writeSummary(JsonWriter json, ResultSet rs) throws Exception {
+        json.beginObject()
+            .field("sourceId", Ids.format(rs.getLong("id")))
+            .field("url", rs.getString("url"))
+            .field("title", rs.getString("title"))
+            .field("reputation", Aggregates.reputation(rs.getLong("rating_sum"), rs.getLong("vote_count")))
+            .field("agreeCount", rs.getInt("agree_count"))
+            .field("disagreeCount", rs.getInt("disagree_count"))
+            .field("postCount", rs.getInt("post_count"))
+            .endObject();
+    }
+
+    // Rating and vote counts for a row joined against post_stats.
+    private static void writePostStats(JsonWriter json, ResultSet rs) throws Exception {
+        json.field("rating", Aggregates.reputation(rs.getLong("rating_sum"), rs.getLong("vote_count")))
+            .field("agreeCount", rs.getInt("agree_count"))
+            .field("disagreeCount", rs.getInt("disagree_count"));
+    }
 
-        StringBuilder postsJson = new StringBuilder();
-        postsJson.append("[");
-        boolean first = true;
-        try (PreparedStatement posts = conn.prepareStatement(
-                "SELECT p.id, p.title, p.comment, p.user_id, p.created_at, " +
-                "AVG(v.rating) AS avg_rating, " +
-                "SUM(CASE WHEN v.agree = 1 THEN 1 ELSE 0 END) AS agree_count, " +
-                "SUM(CASE WHEN v.agree = 0 THEN 1 ELSE 0 END) AS disagree_count " +
-                "FROM posts p LEFT JOIN votes v ON v.post_id = p.id " +
-                "WHERE p.source_id = ? " +
-                "GROUP BY p.id ORDER BY p.created_at DESC")) {
-            posts.setString(1, sourceId);
-            try (ResultSet rs = posts.executeQuery()) {
+    static boolean writeSource(JsonWriter json, Connection conn, long sourceId) throws Exception {
+        try (PreparedStatement stmt = conn.prepareStatement(Queries.SOURCE_SUMMARY_BY_ID)) {
+            stmt.setLong(1, sourceId);
+            try (ResultSet rs = ServerMetrics.executeQuery(stmt, Queries.SOURCE_SUMMARY_BY_ID)) {
+                if (!rs.next()) {
+                    return false;
+                }
+                json.beginObject()
+                    .field("sourceId", Ids.format(sourceId))
+                    .field("url", rs.getString("url"))
+                    .field("title", rs.getString("title"))
+                    .field("reputation", Aggregates.reputation(rs.getLong("rating_sum"), rs.getLong("vote_count")))
+                    .field("agreeCount", rs.getInt("agree_count"))
+                    .field("disagreeCount", rs.getInt("disagree_count"))
+                    .field("postCount", rs.getInt("post_count"));
+            }
+        }
+
+        json.name("posts").beginArray();
+        String nextCursor = writeSourcePosts(json, conn, sourceId, null, SOURCE_POSTS_INLINE);
+        json.endArray().field("nextCursor", nextCursor).endObject();
+        return true;
+    }
+
+    /**
+     * Writes up to limit of the source's posts, newest first, into an open
+     * array, starting after the (created_at, id) key in after when given.
+     * Returns the cursor for the following page, or null if this was the last.
+     */
+    private static String writeSourcePosts(JsonWriter json, Connection conn, long sourceId, long[] after, int limit)
+            throws Exception {
+        String sql = after != null ? Queries.SOURCE_POSTS_PAGE_AFTER : Queries.SOURCE_POSTS_PAGE;
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            int i = 1;
+            stmt.setLong(i++, sourceId);
+            if (after != null) {
+                stmt.setLong(i++, after[0]);
+                stmt.setLong(i++, after[1]);
+            }
+            stmt.setInt(i, limit + 1);
+
+            try (ResultSet rs = ServerMetrics.executeQuery(stmt, sql)) {
+                int count = 0;
+                long lastCreatedAt = 0;
+                long lastId = 0;
                 while (rs.next()) {
-                    if (!first) {
-                        postsJson.append(",");
+                    if (count == limit) {
+                        return encodePostCursor(lastCreatedAt, lastId);
                     }
-                    first = false;
-                    postsJson.append("{");
-                    postsJson.append("\"postId\":").append(JsonUtil.quote(rs.getString("id"))).append(",");
-                    postsJson.append("\"title\":").append(JsonUtil.quote(rs.getString("title"))).append(",");
-                    postsJson.append("\"comment\":").append(JsonUtil.quote(rs.getString("comment"))).append(",");
-                    postsJson.append("\"userId\":").append(JsonUtil.quote(rs.getString("user_id"))).append(",");
-                    postsJson.append("\"createdAt\":").append(rs.getLong("created_at")).append(",");
-                    postsJson.append("\"rating\":").append(rs.getDouble("avg_rating")).append(",");
-                    postsJson.append("\"agreeCount\":").append(rs.getInt("agree_count")).append(",");
-                    postsJson.append("\"disagreeCount\":").append(rs.getInt("disagree_count"));
-                    postsJson.append("}");
-                }
-            }
-        }
-        postsJson.append("]");
-
-        StringBuilder json = new StringBuilder();
-        json.append("{");
-        json.append("\"sourceId\":").append(JsonUtil.quote(sourceId)).append(",");
-        json.append("\"url\":").append(JsonUtil.quote(url)).append(",");
-        json.append("\"title\":").append(JsonUtil.quote(title)).append(",");
-        json.append("\"reputation\":").append(reputation).append(",");
-        json.append("\"agreeCount\":").append(agreeCount).append(",");
-        json.append("\"disagreeCount\":").append(disagreeCount).append(",");
-        json.append("\"postCount\":").append(postCount).append(",");
-        json.append("\"posts\":").append(postsJson);
-        json.append("}");
-        return json.toString();
+                    count++;
+                    lastId = rs.getLong("id");
+                    lastCreatedAt = rs.getLong("created_at");
+                    json.beginObject()
+                        .field("postId", Ids.format(lastId))
+                        .field("title", rs.getString("title"))
+                        .field("comment", rs.getString("comment"))
+                        .field("userId", rs.getString("user_id"))
+                        .field("createdAt", lastCreatedAt);
+                    writePostStats(json, rs);
+                    json.endObject();
+                }
+            }
+        }
+        return null;
+    }
+
+    // Post lists are ordered newest first by (created_at, id); a cursor holds the key of the last row served.
+    private static String encodePostCursor(long createdAt, long postId) {
+        return Cursor.encode(Long.toString(createdAt), Long.toString(postId));
+    }
+
+    // Returns {created_at, id}, or null if the token is malformed.
+    private static long[] decodePostCursor(String token) {
+        String[] parts = Cursor.decode(token, 2);
+        Long createdAt = parts == null ? null : Cursor.parseLong(parts[0]);
+        Long postId = parts == null ? null : Cursor.parseLong(parts[1]);
+        return createdAt == null || postId == null ? null : new long[] { createdAt, postId };
     }
 
     private static class UsersHandler implements HttpHandler {
@@ -536,60 +1323,77 @@ public class Main {
         }
 
         private void handleGetUserPosts(HttpExchange exchange, String userId) throws IOException {
-            try (Connection conn = Database.getConnection()) {
-                Map<String, String> query = HttpUtil.parseQuery(exchange.getRequestURI().getRawQuery());
-                int limit = JsonUtil.parseInt(query.getOrDefault("limit", "50"));
-                int offset = JsonUtil.parseInt(query.getOrDefault("offset", "0"));
-                
-                if (limit > 100) limit = 100;
-
-                StringBuilder postsJson = new StringBuilder();
-                postsJson.append("[");
-                boolean first = true;
-
-                try (PreparedStatement stmt = conn.prepareStatement(
-                        "SELECT p.id, p.source_id, p.title, p.comment, p.created_at, " +
-                        "s.url, s.title AS source_title, " +
-                        "AVG(v.rating) AS avg_rating, " +
-                        "SUM(CASE WHEN v.agree = 1 THEN 1 ELSE 0 END) AS agree_count, " +
-                        "SUM(CASE WHEN v.agree = 0 THEN 1 ELSE 0 END) AS disagree_count " +
-                        "FROM posts p " +
-                        "LEFT JOIN sources s ON s.id = p.source_id " +
-                        "LEFT JOIN votes v ON v.post_id = p.id " +
-                        "WHERE p.user_id = ? " +
-                        "GROUP BY p.id " +
-                        "ORDER BY p.created_at DESC " +
-                        "LIMIT ? OFFSET ?")) {
-                    stmt.setString(1, userId);
-                    stmt.setInt(2, limit);
-                    stmt.setInt(3, offset);
-
-                    try (ResultSet rs = stmt.executeQuery()) {
-                        while (rs.next()) {
-                            if (!first) postsJson.append(",");
-                            first = false;
-                            postsJson.append("{");
-                            postsJson.append("\"postId\":").append(JsonUtil.quote(rs.getString("id"))).append(",");
-                            postsJson.append("\"sourceId\":").append(JsonUtil.quote(rs.getString("source_id"))).append(",");
-                            postsJson.append("\"sourceUrl\":").append(JsonUtil.quote(rs.getString("url"))).append(",");
-                            postsJson.append("\"sourceTitle\":").append(JsonUtil.quote(rs.getString("source_title"))).append(",");
-                            postsJson.append("\"title\":").append(JsonUtil.quote(rs.getString("title"))).append(",");
-                            postsJson.append("\"comment\":").append(JsonUtil.quote(rs.getString("comment"))).append(",");
-                            postsJson.append("\"createdAt\":").append(rs.getLong("created_at")).append(",");
-                            postsJson.append("\"rating\":").append(rs.getDouble("avg_rating")).append(",");
-                            postsJson.append("\"agreeCount\":").append(rs.getInt("agree_count")).append(",");
-                            postsJson.append("\"disagreeCount\":").append(rs.getInt("disagree_count"));
-                            postsJson.append("}");
+            Map<String, String> query = HttpUtil.parseQuery(exchange.getRequestURI().getRawQuery());
+            Integer limit = JsonUtil.parseInt(query.getOrDefault("limit", "50"));
+            if (limit == null || limit < 1) {
+                HttpUtil.sendJson(exchange, 400, JsonUtil.error("Invalid limit"));
+                return;
+            }
+            if (limit > 100) limit = 100;
+
+            // cursor is the keyset path; offset still works for older clients but walks every skipped row.
+            long[] after = null;
+            Integer offset = 0;
+            String cursor = query.get("cursor");
+            if (cursor != null && !cursor.isEmpty()) {
+                after = decodePostCursor(cursor);
+                if (after == null) {
+                    HttpUtil.sendJson(exchange, 400, JsonUtil.error("Invalid cursor"));
+                    return;
+                }
+            } else {
+                offset = JsonUtil.parseInt(query.getOrDefault("offset", "0"));
+                if (offset == null || offset < 0) {
+                    HttpUtil.sendJson(exchange, 400, JsonUtil.error("Invalid offset"));
+                    return;
+                }
+            }
+
+            String sql = after != null ? Queries.USER_POSTS_PAGE_AFTER : Queries.USER_POSTS_PAGE;
+            JsonWriter json = HttpUtil.openJson(exchange, 200);
+            try (Connection conn = Database.getConnection();
+                    PreparedStatement stmt = conn.prepareStatement(sql)) {
+                int i = 1;
+                stmt.setString(i++, userId);
+                if (after != null) {
+                    stmt.setLong(i++, after[0]);
+                    stmt.setLong(i++, after[1]);
+                    stmt.setInt(i, limit + 1);
+                } else {
+                    stmt.setInt(i++, limit + 1);
+                    stmt.setInt(i, offset);
+                }
+
+                try (ResultSet rs = ServerMetrics.executeQuery(stmt, sql)) {
+                    json.beginObject().field("ok", true).field("userId", userId).name("posts").beginArray();
+                    String nextCursor = null;
+                    int count = 0;
+                    long lastCreatedAt = 0;
+                    long lastId = 0;
+                    while (rs.next()) {
+                        if (count == limit) {
+                            nextCursor = encodePostCursor(lastCreatedAt, lastId);
+                            break;
                         }
+                        count++;
+                        lastId = rs.getLong("id");
+                        lastCreatedAt = rs.getLong("created_at");
+                        json.beginObject()
+                            .field("postId", Ids.format(lastId))
+                            .field("sourceId", Ids.format(rs.getLong("source_id")))
+                            .field("sourceUrl", rs.getString("url"))
+                            .field("sourceTitle", rs.getString("source_title"))
+                            .field("title", rs.getString("title"))
+                            .field("comment", rs.getString("comment"))
+                            .field("createdAt", lastCreatedAt);
+                        writePostStats(json, rs);
+                        json.endObject();
                     }
+                    json.endArray().field("nextCursor", nextCursor).endObject();
                 }
-                postsJson.append("]");
-
-                HttpUtil.sendJson(exchange, 200, 
-                    "{\"ok\":true,\"userId\":" + JsonUtil.quote(userId) + 
-                    ",\"posts\":" + postsJson + "}");
+                json.close();
             } catch (Exception e) {
-                HttpUtil.sendJson(exchange, 500, JsonUtil.error("Server error"));
+                sendServerError(exchange, json, e);
             }
         }
 
@@ -598,39 +1402,39 @@ public class Main {
                 int postCount = 0;
                 int voteCount = 0;
 
-                try (PreparedStatement stmt = conn.prepareStatement(
-                        "SELECT COUNT(*) AS count FROM posts WHERE user_id = ?")) {
+                try (PreparedStatement stmt = conn.prepareStatement(Queries.USER_POST_COUNT)) {
                     stmt.setString(1, userId);
-                    try (ResultSet rs = stmt.executeQuery()) {
+                    try (ResultSet rs = ServerMetrics.executeQuery(stmt, Queries.USER_POST_COUNT)) {
                         if (rs.next()) postCount = rs.getInt("count");
                     }
                 }
 
-                try (PreparedStatement stmt = conn.prepareStatement(
-                        "SELECT COUNT(*) AS count FROM votes WHERE user_id = ?")) {
+                try (PreparedStatement stmt = conn.prepareStatement(Queries.USER_VOTE_COUNT)) {
                     stmt.setString(1, userId);
-                    try (ResultSet rs = stmt.executeQuery()) {
+                    try (ResultSet rs = ServerMetrics.executeQuery(stmt, Queries.USER_VOTE_COUNT)) {
                         if (rs.next()) voteCount = rs.getInt("count");
                     }
                 }
 
-                String json = "{\"ok\":true," +
-                    "\"userId\":" + JsonUtil.quote(userId) + "," +
-                    "\"postCount\":" + postCount + "," +
-                    "\"voteCount\":" + voteCount + "}";
-                HttpUtil.sendJson(exchange, 200, json);
+                try (JsonWriter json = HttpUtil.openJson(exchange, 200)) {
+                    json.beginObject()
+                        .field("ok", true)
+                        .field("userId", userId)
+                        .field("postCount", postCount)
+                        .field("voteCount", voteCount)
+                        .endObject();
+                }
             } catch (Exception e) {
-                HttpUtil.sendJson(exchange, 500, JsonUtil.error("Server error"));
+                sendServerError(exchange, null, e);
             }
         }
 
         private void handleGetUserProfile(HttpExchange exchange, String userId) throws IOException {
             try (Connection conn = Database.getConnection()) {
                 String email = null;
-                try (PreparedStatement stmt = conn.prepareStatement(
-                        "SELECT email FROM users WHERE id = ?")) {
+                try (PreparedStatement stmt = conn.prepareStatement(Queries.USER_EMAIL)) {
                     stmt.setString(1, userId);
-                    try (ResultSet rs = stmt.executeQuery()) {
+                    try (ResultSet rs = ServerMetrics.executeQuery(stmt, Queries.USER_EMAIL)) {
                         if (!rs.next()) {
                             HttpUtil.sendJson(exchange, 404, JsonUtil.error("User not found"));
                             return;
@@ -639,12 +1443,11 @@ public class Main {
                     }
                 }
 
-                String json = "{\"ok\":true," +
-                    "\"userId\":" + JsonUtil.quote(userId) + "," +
-                    "\"email\":" + JsonUtil.quote(email) + "}";
-                HttpUtil.sendJson(exchange, 200, json);
+                try (JsonWriter json = HttpUtil.openJson(exchange, 200)) {
+                    json.beginObject().field("ok", true).field("userId", userId).field("email", email).endObject();
+                }
             } catch (Exception e) {
-                HttpUtil.sendJson(exchange, 500, JsonUtil.error("Server error"));
+                sendServerError(exchange, null, e);
             }
         }
     }
@@ -660,94 +1463,104 @@ public class Main {
             Map<String, String> query = HttpUtil.parseQuery(exchange.getRequestURI().getRawQuery());
             String searchQuery = query.get("q");
             String type = query.getOrDefault("type", "posts");
-            int limit = Math.min(JsonUtil.parseInt(query.getOrDefault("limit", "20")), 50);
+            Integer limit = JsonUtil.parseInt(query.getOrDefault("limit", "20"));
+            if (limit == null || limit < 1) {
+                HttpUtil.sendJson(exchange, 400, JsonUtil.error("Invalid limit"));
+                return;
+            }
+            limit = Math.min(limit, 50);
 
-            if (searchQuery == null || searchQuery.trim().isEmpty()) {
+            String match = searchQuery == null ? null : SearchIndex.toMatchQuery(searchQuery);
+            if (match == null) {
                 HttpUtil.sendJson(exchange, 400, JsonUtil.error("Missing search query"));
                 return;
             }
 
-            try (Connection conn = Database.getConnection()) {
-                if ("sources".equals(type)) {
-                    handleSearchSources(exchange, conn, searchQuery, limit);
-                } else {
-                    handleSearchPosts(exchange, conn, searchQuery, limit);
+            String[] cursor = null;
+            if (query.containsKey("cursor")) {
+                cursor = Cursor.decode(query.get("cursor"), 2);
+                if (cursor == null || Cursor.parseLong(cursor[1]) == null || parseScore(cursor[0]) == null) {
+                    HttpUtil.sendJson(exchange, 400, JsonUtil.error("Invalid cursor"));
+                    return;
                 }
-            } catch (Exception e) {
-                HttpUtil.sendJson(exchange, 500, JsonUtil.error("Server error"));
             }
-        }
 
-        private void handleSearchPosts(HttpExchange exchange, Connection conn, String searchQuery, int limit) 
-                throws Exception {
-            StringBuilder resultsJson = new StringBuilder();
-            resultsJson.append("[");
-            boolean first = true;
-
-            String pattern = "%" + searchQuery.toLowerCase() + "%";
-            try (PreparedStatement stmt = conn.prepareStatement(
-                    "SELECT p.id, p.title, p.comment, p.user_id, p.created_at, s.url, s.title AS source_title " +
-                    "FROM posts p " +
-                    "LEFT JOIN sources s ON s.id = p.source_id " +
-                    "WHERE LOWER(p.title) LIKE ? OR LOWER(p.comment) LIKE ? " +
-                    "ORDER BY p.created_at DESC LIMIT ?")) {
-                stmt.setString(1, pattern);
-                stmt.setString(2, pattern);
-                stmt.setInt(3, limit);
-
-                try (ResultSet rs = stmt.executeQuery()) {
+            boolean sources = "sources".equals(type);
+            String sql = sources ? SearchIndex.sourceSearchSql(cursor != null) : SearchIndex.postSearchSql(cursor != null);
+            JsonWriter json = HttpUtil.openJson(exchange, 200);
+            try (Connection conn = Database.getConnection();
+                    PreparedStatement stmt = conn.prepareStatement(sql)) {
+                int i = 1;
+                stmt.setString(i++, match);
+                if (cursor != null) {
+                    double score = parseScore(cursor[0]);
+                    stmt.setDouble(i++, score);
+                    stmt.setDouble(i++, score);
+                    stmt.setLong(i++, Cursor.parseLong(cursor[1]));
+                }
+                stmt.setInt(i++, limit);
+                stmt.setString(i, match);
+
+                try (ResultSet rs = ServerMetrics.executeQuery(stmt, sql)) {
+                    json.beginObject().field("ok", true).field("type", sources ? "sources" : "posts")
+                        .name("results").beginArray();
+                    int count = 0;
+                    double lastScore = 0;
+                    long lastRowid = 0;
                     while (rs.next()) {
-                        if (!first) resultsJson.append(",");
-                        first = false;
-                        resultsJson.append("{");
-                        resultsJson.append("\"postId\":").append(JsonUtil.quote(rs.getString("id"))).append(",");
-                        resultsJson.append("\"title\":").append(JsonUtil.quote(rs.getString("title"))).append(",");
-                        resultsJson.append("\"comment\":").append(JsonUtil.quote(rs.getString("comment"))).append(",");
-                        resultsJson.append("\"userId\":").append(JsonUtil.quote(rs.getString("user_id"))).append(",");
-                        resultsJson.append("\"sourceUrl\":").append(JsonUtil.quote(rs.getString("url"))).append(",");
-                        resultsJson.append("\"sourceTitle\":").append(JsonUtil.quote(rs.getString("source_title"))).append(",");
-                        resultsJson.append("\"createdAt\":").append(rs.getLong("created_at"));
-                        resultsJson.append("}");
+                        count++;
+                        lastScore = rs.getDouble("score");
+                        lastRowid = rs.getLong("fts_rowid");
+                        if (sources) {
+                            writeSourceHit(json, rs);
+                        } else {
+                            writePostHit(json, rs);
+                        }
                     }
+                    json.endArray();
+                    // A full page may have more behind it; an empty follow-up page is the end marker.
+                    json.field("nextCursor", count == limit
+                            ? Cursor.encode(Double.toString(lastScore), Long.toString(lastRowid)) : null);
+                    json.endObject();
                 }
+                json.close();
+            } catch (Exception e) {
+                sendServerError(exchange, json, e);
             }
-            resultsJson.append("]");
-
-            HttpUtil.sendJson(exchange, 200, 
-                "{\"ok\":true,\"type\":\"posts\",\"results\":" + resultsJson + "}");
         }
 
-        private void handleSearchSources(HttpExchange exchange, Connection conn, String searchQuery, int limit) 
-                throws Exception {
-            StringBuilder resultsJson = new StringBuilder();
-            resultsJson.append("[");
-            boolean first = true;
+        private void writePostHit(JsonWriter json, ResultSet rs) throws Exception {
+            json.beginObject()
+                .field("postId", Ids.format(rs.getLong("id")))
+                .field("title", rs.getString("title"))
+                .field("comment", rs.getString("comment"))
+                .field("userId", rs.getString("user_id"))
+                .field("sourceUrl", rs.getString("url"))
+                .field("sourceTitle", rs.getString("source_title"))
+                .field("createdAt", rs.getLong("created_at"))
+                .field("titleHighlight", rs.getString("title_highlight"))
+                .field("snippet", rs.getString("snippet"))
+                .field("score", -rs.getDouble("score"))
+                .endObject();
+        }
 
-            String pattern = "%" + searchQuery.toLowerCase() + "%";
-            try (PreparedStatement stmt = conn.prepareStatement(
-                    "SELECT id, url, title FROM sources " +
-                    "WHERE LOWER(url) LIKE ? OR LOWER(title) LIKE ? " +
-                    "LIMIT ?")) {
-                stmt.setString(1, pattern);
-                stmt.setString(2, pattern);
-                stmt.setInt(3, limit);
+        private void writeSourceHit(JsonWriter json, ResultSet rs) throws Exception {
+            json.beginObject()
+                .field("sourceId", Ids.format(rs.getLong("id")))
+                .field("url", rs.getString("url"))
+                .field("title", rs.getString("title"))
+                .field("titleHighlight", rs.getString("title_highlight"))
+                .field("score", -rs.getDouble("score"))
+                .endObject();
+        }
 
-                try (ResultSet rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        if (!first) resultsJson.append(",");
-                        first = false;
-                        resultsJson.append("{");
-                        resultsJson.append("\"sourceId\":").append(JsonUtil.quote(rs.getString("id"))).append(",");
-                        resultsJson.append("\"url\":").append(JsonUtil.quote(rs.getString("url"))).append(",");
-                        resultsJson.append("\"title\":").append(JsonUtil.quote(rs.getString("title")));
-                        resultsJson.append("}");
-                    }
-                }
+        private static Double parseScore(String raw) {
+            try {
+                double score = Double.parseDouble(raw);
+                return Double.isFinite(score) ? score : null;
+            } catch (NumberFormatException e) {
+                return null;
             }
-            resultsJson.append("]");
-
-            HttpUtil.sendJson(exchange, 200, 
-                "{\"ok\":true,\"type\":\"sources\",\"results\":" + resultsJson + "}");
         }
     }
 
@@ -759,45 +1572,282 @@ public class Main {
                 return;
             }
 
-            try (Connection conn = Database.getConnection()) {
-                int totalUsers = 0;
-                int totalSources = 0;
-                int totalPosts = 0;
-                int totalVotes = 0;
-
-                try (PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) AS count FROM users")) {
-                    try (ResultSet rs = stmt.executeQuery()) {
-                        if (rs.next()) totalUsers = rs.getInt("count");
-                    }
-                }
+            if ("/stats/server".equals(exchange.getRequestURI().getPath())) {
+                handleServerStats(exchange);
+                return;
+            }
 
-                try (PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) AS count FROM sources")) {
-                    try (ResultSet rs = stmt.executeQuery()) {
-                        if (rs.next()) totalSources = rs.getInt("count");
-                    }
-                }
+            try (JsonWriter json = HttpUtil.openJson(exchange, 200)) {
+                json.beginObject()
+                    .field("ok", true)
+                    .field("totalUsers", COUNTERS.getUsers())
+                    .field("totalSources", COUNTERS.getSources())
+                    .field("totalPosts", COUNTERS.getPosts())
+                    .field("totalVotes", COUNTERS.getVotes())
+                    .endObject();
+            }
+        }
 
-                try (PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) AS count FROM posts")) {
-                    try (ResultSet rs = stmt.executeQuery()) {
-                        if (rs.next()) totalPosts = rs.getInt("count");
-                    }
+        private void handleServerStats(HttpExchange exchange) throws IOException {
+            JsonWriter json = HttpUtil.openJson(exchange, 200);
+            try {
+                ConnectionPool.Metrics pool = Database.getPoolMetrics();
+                json.beginObject().field("ok", true);
+                json.name("dbPool").beginObject()
+                    .field("readPoolSize", pool.getReadPoolSize())
+                    .field("activeReaders", pool.getActiveReaders())
+                    .field("idleReaders", pool.getIdleReaders())
+                    .field("writerActive", pool.isWriterActive())
+                    .field("waitingBorrowers", pool.getWaitingBorrowers())
+                    .field("borrowCount", pool.getBorrowCount())
+                    .field("avgBorrowWaitMs", pool.getAverageBorrowWaitMillis())
+                    .field("maxBorrowWaitMs", pool.getMaxBorrowWaitNanos() / 1_000_000.0)
+                    .field("borrowTimeouts", pool.getBorrowTimeouts())
+                    .endObject();
+                writeCacheStats(json.name("sourceCache"), SOURCE_CACHE.stats());
+                writeCacheStats(json.name("summaryCache"), SUMMARY_CACHE.stats());
+                json.name("sourceIds").beginObject()
+                    .field("size", SOURCE_IDS.size())
+                    .field("hits", SOURCE_IDS.getHits())
+                    .field("misses", SOURCE_IDS.getMisses())
+                    .endObject();
+                BloomFilter urlFilter = KNOWN_URLS;
+                if (urlFilter != null) {
+                    BloomFilter.Stats filter = urlFilter.stats();
+                    json.name("urlFilter").beginObject()
+                        .field("bits", filter.getBitCount())
+                        .field("hashes", filter.getHashCount())
+                        .field("expected", filter.getExpectedInsertions())
+                        .field("inserted", filter.getInsertions())
+                        .field("rejected", filter.getNegatives())
+                        .field("passed", filter.getPositives())
+                        .field("falsePositives", filter.getFalsePositives())
+                        .field("estimatedFpp", filter.getEstimatedFpp())
+                        .field("observedFpp", filter.getObservedFpp())
+                        .endObject();
                 }
+                writeTokenCacheStats(json.name("tokenCache"), TOKEN_CACHE.stats());
+                writeSingleFlightStats(json.name("sourceRenders"), SOURCE_RENDERS);
+                writeSingleFlightStats(json.name("summaryRenders"), SUMMARY_RENDERS);
+                json.name("events").beginObject()
+                    .field("openStreams", SOURCE_EVENTS.getOpenStreams())
+                    .field("subscribedSources", SOURCE_EVENTS.getSubscribedSources())
+                    .field("framesSent", SOURCE_EVENTS.getFramesSent())
+                    .field("changesCoalesced", SOURCE_EVENTS.getChangesCoalesced())
+                    .field("slowConsumersDropped", SOURCE_EVENTS.getSlowConsumersDropped())
+                    .field("writeTimeouts", SOURCE_EVENTS.getWriteTimeouts())
+                    .field("stuckWriters", SOURCE_EVENTS.getStuckWriters())
+                    .field("streamsRejected", SOURCE_EVENTS.getStreamsRejected())
+                    .endObject();
+                json.name("compression").beginObject()
+                    .field("gzipResponses", Compression.getGzipResponses())
+                    .field("deflateResponses", Compression.getDeflateResponses())
+                    .field("bytesIn", Compression.getBytesIn())
+                    .field("bytesOut", Compression.getBytesOut())
+                    .field("deflatersCreated", Compression.getDeflatersCreated())
+                    .endObject();
+                json.name("counters").beginObject()
+                    .field("reconciliations", COUNTERS.getReconciliations())
+                    .field("corrections", COUNTERS.getCorrections())
+                    .field("lastReconciledAt", COUNTERS.getLastReconciledAt())
+                    .endObject();
+                json.name("auth");
+                AUTH_EXECUTOR.writeTo(json);
+                json.name("writes");
+                WRITE_BATCHER.writeTo(json);
+                json.endObject();
+                json.close();
+            } catch (Exception e) {
+                sendServerError(exchange, json, e);
+            }
+        }
 
-                try (PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) AS count FROM votes")) {
-                    try (ResultSet rs = stmt.executeQuery()) {
-                        if (rs.next()) totalVotes = rs.getInt("count");
-                    }
-                }
+        private void writeSingleFlightStats(JsonWriter json, SingleFlight<?, ?> flights) throws IOException {
+            json.beginObject()
+                .field("inFlight", flights.getInFlight())
+                .field("loads", flights.getLoads())
+                .field("shared", flights.getShared())
+                .field("timeouts", flights.getTimeouts())
+                .endObject();
+        }
+
+        private void writeTokenCacheStats(JsonWriter json, TokenCache.Stats tokens) throws IOException {
+            json.beginObject()
+                .field("size", tokens.getSize())
+                .field("negativeSize", tokens.getNegativeSize())
+                .field("hits", tokens.getHits())
+                .field("misses", tokens.getMisses())
+                .field("negativeHits", tokens.getNegativeHits())
+                .field("expirations", tokens.getExpirations())
+                .endObject();
+        }
+
+        private void writeCacheStats(JsonWriter json, SourceCache.Stats cache) throws IOException {
+            json.beginObject()
+                .field("size", cache.getSize())
+                .field("maxEntries", cache.getMaxEntries())
+                .field("ttlMs", cache.getTtlMs())
+                .field("hits", cache.getHits())
+                .field("misses", cache.getMisses())
+                .field("hitRatio", cache.getHitRatio())
+                .field("evictions", cache.getEvictions())
+                .field("expirations", cache.getExpirations())
+                .field("invalidations", cache.getInvalidations())
+                .field("rejectedPuts", cache.getRejectedPuts())
+                .endObject();
+        }
+    }
+
+    // Prometheus scrape endpoint: per-route and per-statement metrics from ServerMetrics plus executor and pool gauges.
+    private static class MetricsHandler implements HttpHandler {
+        private final ExecutorService executor;
+
+        MetricsHandler(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                HttpUtil.sendJson(exchange, 405, JsonUtil.error("Method not allowed"));
+                return;
+            }
 
-                String json = "{\"ok\":true," +
-                    "\"totalUsers\":" + totalUsers + "," +
-                    "\"totalSources\":" + totalSources + "," +
-                    "\"totalPosts\":" + totalPosts + "," +
-                    "\"totalVotes\":" + totalVotes + "}";
-                HttpUtil.sendJson(exchange, 200, json);
+            byte[] body;
+            try {
+                PrometheusText out = new PrometheusText();
+                ServerMetrics.write(out);
+                writeExecutors(out);
+                writePool(out, Database.getPoolMetrics());
+                BloomFilter urlFilter = KNOWN_URLS;
+                if (urlFilter != null) {
+                    writeUrlFilter(out, urlFilter.stats());
+                }
+                writeCompression(out);
+                writeEvents(out);
+                writeRenders(out);
+                out.family("crowdtruth_auth_queue_wait_seconds", "histogram",
+                        "Time login and registration work waits for an auth worker.");
+                out.histogram("crowdtruth_auth_queue_wait_seconds", "", AUTH_EXECUTOR.getQueueWait().snapshot());
+                out.family("crowdtruth_password_seconds", "histogram", "PBKDF2 hashing and verification time.");
+                out.histogram("crowdtruth_password_seconds", PrometheusText.label("op", "hash"),
+                        PasswordUtil.getHashLatency().snapshot());
+                out.histogram("crowdtruth_password_seconds", PrometheusText.label("op", "verify"),
+                        PasswordUtil.getVerifyLatency().snapshot());
+                out.family("crowdtruth_write_commit_seconds", "histogram", "Group commit time per write batch.");
+                out.histogram("crowdtruth_write_commit_seconds", "", WRITE_BATCHER.getCommitLatency().snapshot());
+                body = out.toByteArray();
             } catch (Exception e) {
-                HttpUtil.sendJson(exchange, 500, JsonUtil.error("Server error"));
+                sendServerError(exchange, null, e);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", PrometheusText.CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        }
+
+        private void writeExecutors(PrometheusText out) {
+            String http = PrometheusText.label("executor", "http");
+            String auth = PrometheusText.label("executor", "auth");
+            String writes = PrometheusText.label("executor", "writes");
+            out.family("crowdtruth_executor_queue_depth", "gauge", "Tasks waiting for a worker thread.");
+            // The virtual-thread executor has no queue; it only appears in the fixed mode.
+            if (executor instanceof ThreadPoolExecutor) {
+                out.sample("crowdtruth_executor_queue_depth", http, ((ThreadPoolExecutor) executor).getQueue().size());
             }
+            out.sample("crowdtruth_executor_queue_depth", auth, AUTH_EXECUTOR.getQueued());
+            out.sample("crowdtruth_executor_queue_depth", writes, WRITE_BATCHER.getQueued());
+            out.family("crowdtruth_executor_active_threads", "gauge", "Worker threads currently running a task.");
+            if (executor instanceof ThreadPoolExecutor) {
+                out.sample("crowdtruth_executor_active_threads", http, ((ThreadPoolExecutor) executor).getActiveCount());
+            }
+            out.sample("crowdtruth_executor_active_threads", auth, AUTH_EXECUTOR.getActive());
+        }
+
+        private void writePool(PrometheusText out, ConnectionPool.Metrics pool) {
+            out.family("crowdtruth_db_pool_wait_seconds", "histogram", "Time spent waiting to borrow a connection.");
+            out.histogram("crowdtruth_db_pool_wait_seconds", "", pool.getBorrowWait());
+            out.family("crowdtruth_db_pool_active_readers", "gauge", "Read connections currently borrowed.");
+            out.sample("crowdtruth_db_pool_active_readers", "", pool.getActiveReaders());
+            out.family("crowdtruth_db_pool_waiting_borrowers", "gauge", "Threads queued for a connection.");
+            out.sample("crowdtruth_db_pool_waiting_borrowers", "", pool.getWaitingBorrowers());
+            out.family("crowdtruth_db_pool_timeouts_total", "counter", "Borrows that timed out.");
+            out.sample("crowdtruth_db_pool_timeouts_total", "", pool.getBorrowTimeouts());
+        }
+
+        private void writeRenders(PrometheusText out) {
+            String source = PrometheusText.label("response", "source");
+            String summary = PrometheusText.label("response", "summary");
+            out.family("crowdtruth_source_renders_total", "counter",
+                    "Cache-miss renders of source responses actually run.");
+            out.sample("crowdtruth_source_renders_total", source, SOURCE_RENDERS.getLoads());
+            out.sample("crowdtruth_source_renders_total", summary, SUMMARY_RENDERS.getLoads());
+            out.family("crowdtruth_source_renders_shared_total", "counter",
+                    "Requests served by a render another request had in flight.");
+            out.sample("crowdtruth_source_renders_shared_total", source, SOURCE_RENDERS.getShared());
+            out.sample("crowdtruth_source_renders_shared_total", summary, SUMMARY_RENDERS.getShared());
+            out.family("crowdtruth_source_render_timeouts_total", "counter",
+                    "Requests that gave up waiting for a shared render.");
+            out.sample("crowdtruth_source_render_timeouts_total", source, SOURCE_RENDERS.getTimeouts());
+            out.sample("crowdtruth_source_render_timeouts_total", summary, SUMMARY_RENDERS.getTimeouts());
+        }
+
+        private void writeEvents(PrometheusText out) {
+            out.family("crowdtruth_event_streams_open", "gauge", "Open /sources/{id}/events streams.");
+            out.sample("crowdtruth_event_streams_open", "", SOURCE_EVENTS.getOpenStreams());
+            out.family("crowdtruth_event_frames_total", "counter",
+                    "Frames written to event streams, heartbeats included.");
+            out.sample("crowdtruth_event_frames_total", "", SOURCE_EVENTS.getFramesSent());
+            out.family("crowdtruth_event_changes_coalesced_total", "counter",
+                    "Source changes folded into a frame already pending for the interval.");
+            out.sample("crowdtruth_event_changes_coalesced_total", "", SOURCE_EVENTS.getChangesCoalesced());
+            out.family("crowdtruth_event_streams_closed_total", "counter",
+                    "Event streams ended or refused by the server.");
+            out.sample("crowdtruth_event_streams_closed_total", PrometheusText.label("reason", "slow_consumer"),
+                    SOURCE_EVENTS.getSlowConsumersDropped());
+            out.sample("crowdtruth_event_streams_closed_total", PrometheusText.label("reason", "write_timeout"),
+                    SOURCE_EVENTS.getWriteTimeouts());
+            out.sample("crowdtruth_event_streams_closed_total", PrometheusText.label("reason", "stream_cap"),
+                    SOURCE_EVENTS.getStreamsRejected());
+            out.family("crowdtruth_event_writers_stuck", "gauge",
+                    "Writer threads blocked on a dropped stream past the write timeout, each replaced by a spare.");
+            out.sample("crowdtruth_event_writers_stuck", "", SOURCE_EVENTS.getStuckWriters());
+        }
+
+        private void writeCompression(PrometheusText out) {
+            out.family("crowdtruth_compressed_responses_total", "counter", "Responses sent with a Content-Encoding.");
+            out.sample("crowdtruth_compressed_responses_total", PrometheusText.label("encoding", "gzip"),
+                    Compression.getGzipResponses());
+            out.sample("crowdtruth_compressed_responses_total", PrometheusText.label("encoding", "deflate"),
+                    Compression.getDeflateResponses());
+            out.family("crowdtruth_compression_bytes_total", "counter",
+                    "Bytes fed to and produced by the compressor; cached bodies are compressed once.");
+            out.sample("crowdtruth_compression_bytes_total", PrometheusText.label("stage", "in"),
+                    Compression.getBytesIn());
+            out.sample("crowdtruth_compression_bytes_total", PrometheusText.label("stage", "out"),
+                    Compression.getBytesOut());
+            out.family("crowdtruth_deflaters_created_total", "counter",
+                    "Deflaters allocated because the pool was empty.");
+            out.sample("crowdtruth_deflaters_created_total", "", Compression.getDeflatersCreated());
+        }
+
+        private void writeUrlFilter(PrometheusText out, BloomFilter.Stats filter) {
+            out.family("crowdtruth_url_filter_lookups_total", "counter",
+                    "Source URL lookups by filter result; false_positive lookups are also counted as passed.");
+            out.sample("crowdtruth_url_filter_lookups_total", PrometheusText.label("result", "rejected"),
+                    filter.getNegatives());
+            out.sample("crowdtruth_url_filter_lookups_total", PrometheusText.label("result", "passed"),
+                    filter.getPositives());
+            out.sample("crowdtruth_url_filter_lookups_total", PrometheusText.label("result", "false_positive"),
+                    filter.getFalsePositives());
+            out.family("crowdtruth_url_filter_keys", "gauge", "Distinct source URLs added to the filter.");
+            out.sample("crowdtruth_url_filter_keys", "", filter.getInsertions());
+            out.family("crowdtruth_url_filter_capacity_keys", "gauge", "Keys the filter was sized for.");
+            out.sample("crowdtruth_url_filter_capacity_keys", "", filter.getExpectedInsertions());
+            out.family("crowdtruth_url_filter_estimated_fpp", "gauge",
+                    "False-positive probability implied by the current fill.");
+            out.sample("crowdtruth_url_filter_estimated_fpp", "", filter.getEstimatedFpp());
         }
     }
 }
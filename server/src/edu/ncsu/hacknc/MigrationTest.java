@@ -0,0 +1,194 @@
+package edu.ncsu.hacknc;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Schema upgrade check. Copies a database in the original layout (by default
+ * the crowdtruth.db shipped next to the server, with UUID TEXT keys and no
+ * url_key) to a scratch file and checks that Database.init() upgrades it: ids
+ * become INTEGER, every source has its url_key, no post or vote is lost, no
+ * foreign key is broken and the aggregates are rebuilt. It then starts again
+ * on the upgraded file, and upgrades a second copy that is made to fail
+ * halfway to check that the failure leaves the old layout untouched and a
+ * later start still succeeds. Exits 1 on failure.
+ */
+public class MigrationTest {
+
+	private static final List<String> failures = new ArrayList<>();
+
+	public static void main(String[] args) throws Exception {
+		Path legacy = Path.of(args.length > 0 ? args[0] : "crowdtruth.db");
+		if (!Files.exists(legacy)) {
+			System.out.println("No database at " + legacy.toAbsolutePath());
+			System.exit(1);
+		}
+
+		Path file = copy(legacy);
+		try {
+			long[] expected = expectedCounts(file);
+			init(file);
+			checkUpgraded(file, expected);
+			// A second start finds nothing to upgrade and must not change anything.
+			init(file);
+			checkUpgraded(file, expected);
+		} finally {
+			delete(file);
+		}
+
+		Path broken = copy(legacy);
+		try {
+			// Renaming the rebuilt tables into place fails while a view refers to a table that was just dropped.
+			execute(broken, "CREATE VIEW migration_blocker AS SELECT p.id FROM posts p JOIN sources s ON s.id = p.source_id");
+			String schema = schema(broken);
+			try {
+				init(broken);
+				fail("upgrade succeeded despite the blocking view");
+			} catch (SQLException e) {
+				System.out.println("ok   failed upgrade reported: " + e.getMessage());
+			}
+			check("old layout kept after a failed upgrade", schema.equals(schema(broken)));
+			execute(broken, "DROP VIEW migration_blocker");
+			long[] expected = expectedCounts(broken);
+			init(broken);
+			checkUpgraded(broken, expected);
+		} finally {
+			delete(broken);
+		}
+
+		if (!failures.isEmpty()) {
+			System.out.println(failures.size() + " migration check(s) failed");
+			System.exit(1);
+		}
+		System.out.println("Migration checks passed");
+	}
+
+	private static void init(Path file) throws SQLException {
+		System.setProperty("crowdtruth.db.url", "jdbc:sqlite:" + file);
+		try {
+			Database.init();
+		} finally {
+			Database.shutdown();
+		}
+	}
+
+	// Users, tokens, then the posts and votes the upgrade can carry over: those whose parents all exist.
+	private static long[] expectedCounts(Path file) throws SQLException {
+		try (Connection conn = open(file)) {
+			long users = count(conn, "SELECT COUNT(*) FROM users");
+			long tokens = count(conn, "SELECT COUNT(*) FROM tokens");
+			long posts = count(conn, "SELECT COUNT(*) FROM posts p " +
+					"WHERE p.source_id IN (SELECT id FROM sources) AND p.user_id IN (SELECT id FROM users)");
+			long votes = count(conn, "SELECT COUNT(*) FROM votes v " +
+					"JOIN posts p ON p.id = v.post_id " +
+					"WHERE p.source_id IN (SELECT id FROM sources) AND p.user_id IN (SELECT id FROM users) " +
+					"AND v.user_id IN (SELECT id FROM users)");
+			return new long[] { users, tokens, posts, votes };
+		}
+	}
+
+	private static void checkUpgraded(Path file, long[] expected) throws SQLException {
+		check("integer ids", "INTEGER".equalsIgnoreCase(columnType(file, "sources", "id"))
+				&& "INTEGER".equalsIgnoreCase(columnType(file, "posts", "id"))
+				&& "INTEGER".equalsIgnoreCase(columnType(file, "votes", "id")));
+		try (Connection conn = open(file); Statement stmt = conn.createStatement()) {
+			check("users kept", count(conn, "SELECT COUNT(*) FROM users") == expected[0]);
+			check("tokens kept", count(conn, "SELECT COUNT(*) FROM tokens") == expected[1]);
+			check("posts kept", count(conn, "SELECT COUNT(*) FROM posts") == expected[2]);
+			check("votes kept", count(conn, "SELECT COUNT(*) FROM votes") == expected[3]);
+
+			boolean keysMatch = true;
+			try (ResultSet rs = stmt.executeQuery("SELECT url, url_key FROM sources")) {
+				while (rs.next()) {
+					keysMatch &= rs.getObject("url_key") != null && rs.getLong("url_key") == SecurityUtil.urlKey(rs.getString("url"));
+				}
+			}
+			check("url keys", keysMatch);
+
+			try (ResultSet rs = stmt.executeQuery("PRAGMA foreign_key_check")) {
+				check("foreign keys", !rs.next());
+			}
+			try (ResultSet rs = stmt.executeQuery("PRAGMA integrity_check")) {
+				check("integrity", rs.next() && "ok".equals(rs.getString(1)));
+			}
+			check("source aggregates", count(conn, "SELECT COUNT(*) FROM source_stats") == count(conn, "SELECT COUNT(*) FROM sources")
+					&& count(conn, "SELECT COALESCE(SUM(post_count), 0) FROM source_stats") == expected[2]
+					&& count(conn, "SELECT COALESCE(SUM(vote_count), 0) FROM source_stats") == expected[3]);
+			check("post aggregates", count(conn, "SELECT COUNT(*) FROM post_stats") == expected[2]);
+		}
+	}
+
+	private static void check(String name, boolean ok) {
+		System.out.printf("%-4s %s%n", ok ? "ok" : "FAIL", name);
+		if (!ok) {
+			failures.add(name);
+		}
+	}
+
+	private static void fail(String name) {
+		check(name, false);
+	}
+
+	// Declared type of the column, or null if it does not exist.
+	private static String columnType(Path file, String table, String column) throws SQLException {
+		try (Connection conn = open(file);
+				Statement stmt = conn.createStatement();
+				ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+			while (rs.next()) {
+				if (column.equalsIgnoreCase(rs.getString("name"))) {
+					return rs.getString("type");
+				}
+			}
+		}
+		return null;
+	}
+
+	private static String schema(Path file) throws SQLException {
+		StringBuilder schema = new StringBuilder();
+		try (Connection conn = open(file);
+				Statement stmt = conn.createStatement();
+				ResultSet rs = stmt.executeQuery("SELECT type, name, sql FROM sqlite_master ORDER BY type, name")) {
+			while (rs.next()) {
+				schema.append(rs.getString("type")).append(' ').append(rs.getString("name")).append(": ")
+						.append(rs.getString("sql")).append('\n');
+			}
+		}
+		return schema.toString();
+	}
+
+	private static long count(Connection conn, String sql) throws SQLException {
+		try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+			return rs.next() ? rs.getLong(1) : 0;
+		}
+	}
+
+	private static void execute(Path file, String sql) throws SQLException {
+		try (Connection conn = open(file); Statement stmt = conn.createStatement()) {
+			stmt.execute(sql);
+		}
+	}
+
+	private static Connection open(Path file) throws SQLException {
+		return DriverManager.getConnection("jdbc:sqlite:" + file);
+	}
+
+	private static Path copy(Path legacy) throws Exception {
+		Path file = Files.createTempFile("crowdtruth-migration", ".db");
+		Files.copy(legacy, file, StandardCopyOption.REPLACE_EXISTING);
+		return file;
+	}
+
+	private static void delete(Path file) throws Exception {
+		Files.deleteIfExists(file);
+		Files.deleteIfExists(Path.of(file + "-wal"));
+		Files.deleteIfExists(Path.of(file + "-shm"));
+	}
+}
@@ -11,14 +11,18 @@ public final class PasswordUtil {
 	private static final int KEY_LENGTH_BITS = 256;
 	private static final int SALT_BYTES = 16;
 	private static final SecureRandom RANDOM = new SecureRandom();
+	private static final LatencyHistogram HASH_LATENCY = new LatencyHistogram();
+	private static final LatencyHistogram VERIFY_LATENCY = new LatencyHistogram();
 
 	private PasswordUtil() {
 	}
 
 	public static HashedPassword hashPassword(String password) {
+		long start = System.nanoTime();
 		byte[] salt = new byte[SALT_BYTES];
 		RANDOM.nextBytes(salt);
 		byte[] hash = pbkdf2(password, salt);
+		HASH_LATENCY.recordNanos(System.nanoTime() - start);
 		return new HashedPassword(toHex(hash), toHex(salt));
 	}
 
@@ -26,12 +30,22 @@ public final class PasswordUtil {
 		if (saltHex == null || hashHex == null) {
 			return false;
 		}
+		long start = System.nanoTime();
 		byte[] salt = fromHex(saltHex);
 		byte[] expected = fromHex(hashHex);
 		byte[] actual = pbkdf2(password, salt);
+		VERIFY_LATENCY.recordNanos(System.nanoTime() - start);
 		return constantTimeEquals(expected, actual);
 	}
 
+	public static LatencyHistogram getHashLatency() {
+		return HASH_LATENCY;
+	}
+
+	public static LatencyHistogram getVerifyLatency() {
+		return VERIFY_LATENCY;
+	}
+
 	private static byte[] pbkdf2(String password, byte[] salt) {
 		try {
 			PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, ITERATIONS, KEY_LENGTH_BITS);
@@ -0,0 +1,104 @@
+package edu.ncsu.hacknc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory row counts for the platform totals served by /stats. Seeded from
+ * the database at startup, bumped by the write paths after they commit, and
+ * periodically reconciled against COUNT(*) to absorb any drift.
+ *
+ * Writers bump a counter while still holding the writer connection, and
+ * {@link #reconcile(Connection)} runs on that same connection, so a
+ * reconciliation never sees a committed row whose increment is still pending.
+ */
+public final class PlatformCounters {
+
+    private final LongAdder users = new LongAdder();
+    private final LongAdder sources = new LongAdder();
+    private final LongAdder posts = new LongAdder();
+    private final LongAdder votes = new LongAdder();
+
+    private final LongAdder reconciliations = new LongAdder();
+    private final LongAdder corrections = new LongAdder();
+    private volatile long lastReconciledAt;
+
+    public void userRegistered() {
+        users.increment();
+    }
+
+    public void sourceCreated() {
+        sources.increment();
+    }
+
+    public void postCreated() {
+        posts.increment();
+    }
+
+    public void voteCast() {
+        votes.increment();
+    }
+
+    public long getUsers() {
+        return users.sum();
+    }
+
+    public long getSources() {
+        return sources.sum();
+    }
+
+    public long getPosts() {
+        return posts.sum();
+    }
+
+    public long getVotes() {
+        return votes.sum();
+    }
+
+    public long getReconciliations() {
+        return reconciliations.sum();
+    }
+
+    // Total absolute adjustment applied by reconciliations; non-zero means a write path missed a bump.
+    public long getCorrections() {
+        return corrections.sum();
+    }
+
+    public long getLastReconciledAt() {
+        return lastReconciledAt;
+    }
+
+    // Brings the counters in line with the tables. Must run on the writer connection.
+    public void reconcile(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(
+                        "SELECT (SELECT COUNT(*) FROM users) AS users, " +
+                        "(SELECT COUNT(*) FROM sources) AS sources, " +
+                        "(SELECT COUNT(*) FROM posts) AS posts, " +
+                        "(SELECT COUNT(*) FROM votes) AS votes")) {
+            if (!rs.next()) {
+                return;
+            }
+            correct(users, rs.getLong("users"));
+            correct(sources, rs.getLong("sources"));
+            correct(posts, rs.getLong("posts"));
+            correct(votes, rs.getLong("votes"));
+        }
+        reconciliations.increment();
+        lastReconciledAt = System.currentTimeMillis();
+    }
+
+    private void correct(LongAdder counter, long actual) {
+        long delta = actual - counter.sum();
+        if (delta != 0) {
+            counter.add(delta);
+            // The first reconciliation is the initial seed, not a correction.
+            if (lastReconciledAt != 0) {
+                corrections.add(Math.abs(delta));
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package edu.ncsu.hacknc;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builder for the Prometheus text exposition format (version 0.0.4). Call
+ * {@link #family} once per metric name, then add its samples. Latency
+ * histograms are written in seconds with fixed cumulative buckets, derived
+ * from a {@link LatencyHistogram} snapshot.
+ */
+public final class PrometheusText {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final long[] BUCKET_MICROS = {
+            500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000,
+            250_000, 500_000, 1_000_000, 2_500_000, 5_000_000, 10_000_000
+    };
+    private static final String[] BUCKET_LABELS = {
+            "0.0005", "0.001", "0.0025", "0.005", "0.01", "0.025", "0.05", "0.1",
+            "0.25", "0.5", "1", "2.5", "5", "10"
+    };
+
+    private final StringBuilder out = new StringBuilder(8192);
+
+    public PrometheusText family(String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    public PrometheusText sample(String name, String labels, long value) {
+        appendName(name, labels);
+        out.append(value).append('\n');
+        return this;
+    }
+
+    public PrometheusText sample(String name, String labels, double value) {
+        appendName(name, labels);
+        out.append(value).append('\n');
+        return this;
+    }
+
+    public PrometheusText histogram(String name, String labels, LatencyHistogram.Snapshot snapshot) {
+        String prefix = labels == null || labels.isEmpty() ? "" : labels + ",";
+        for (int i = 0; i < BUCKET_MICROS.length; i++) {
+            sample(name + "_bucket", prefix + "le=\"" + BUCKET_LABELS[i] + "\"",
+                    snapshot.countAtOrBelow(BUCKET_MICROS[i]));
+        }
+        sample(name + "_bucket", prefix + "le=\"+Inf\"", snapshot.getCount());
+        sample(name + "_sum", labels, snapshot.getSumMillis() / 1000.0);
+        sample(name + "_count", labels, snapshot.getCount());
+        return this;
+    }
+
+    // A single label pair with the value escaped, e.g. label("route", "/sources").
+    public static String label(String name, String value) {
+        StringBuilder sb = new StringBuilder(name.length() + value.length() + 3);
+        sb.append(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    public byte[] toByteArray() {
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void appendName(String name, String labels) {
+        out.append(name);
+        if (labels != null && !labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+    }
+}
@@ -0,0 +1,153 @@
+package edu.ncsu.hacknc;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SQL run by the request handlers in {@link Main}. Keeping it in one place
+ * lets {@link QueryPlanTest} check every statement's plan: each String
+ * constant here is picked up automatically, and the builders below are
+ * listed there explicitly. Handler SQL belongs here, not inline in Main.
+ */
+public final class Queries {
+
+    static final String INSERT_USER =
+            "INSERT INTO users (id, email, password_hash, password_salt) VALUES (?, ?, ?, ?)";
+
+    static final String USER_CREDENTIALS =
+            "SELECT id, password_hash, password_salt FROM users WHERE email = ?";
+
+    static final String USER_EMAIL = "SELECT email FROM users WHERE id = ?";
+
+    static final String INSERT_TOKEN = "INSERT INTO tokens (token, user_id, created_at) VALUES (?, ?, ?)";
+
+    static final String DELETE_TOKEN = "DELETE FROM tokens WHERE token = ?";
+
+    static final String TOKEN_SESSION = "SELECT user_id, created_at FROM tokens WHERE token = ?";
+
+    // Parameters: url_key, url.
+    static final String SOURCE_BY_URL = "SELECT id, title FROM sources WHERE url_key = ? AND url = ?";
+
+    static final String SOURCE_URL_TITLE = "SELECT url, title FROM sources WHERE id = ?";
+
+    // Single-statement upsert: inserts the source, or fills in its title if it has none. RETURNING yields
+    // the id only when a row was written, so an untouched existing row falls back to SOURCE_BY_URL.
+    static final String UPSERT_SOURCE =
+            "INSERT INTO sources (id, url, url_key, title) VALUES (?, ?, ?, ?) " +
+            "ON CONFLICT(url) DO UPDATE SET title = excluded.title " +
+            "WHERE COALESCE(sources.title, '') = '' AND COALESCE(excluded.title, '') <> '' " +
+            "RETURNING id";
+
+    private static final String SOURCE_SUMMARY_SELECT =
+            "SELECT s.id, s.url, s.title, " +
+            "st.rating_sum, st.vote_count, st.agree_count, st.disagree_count, st.post_count, st.version " +
+            "FROM sources s LEFT JOIN source_stats st ON st.source_id = s.id ";
+
+    // The id and response version of a source, read before rendering it so the ETag is never newer than
+    // the body. A missing source_stats row reads as version NULL (0).
+    private static final String SOURCE_VERSION_SELECT =
+            "SELECT s.id, st.version FROM sources s LEFT JOIN source_stats st ON st.source_id = s.id ";
+
+    static final String SOURCE_VERSION_BY_ID = SOURCE_VERSION_SELECT + "WHERE s.id = ?";
+
+    // Parameters: url_key, url.
+    static final String SOURCE_VERSION_BY_URL = SOURCE_VERSION_SELECT + "WHERE s.url_key = ? AND s.url = ?";
+
+    static final String SOURCE_SUMMARY_BY_ID = SOURCE_SUMMARY_SELECT + "WHERE s.id = ?";
+
+    static final String SOURCE_SUMMARY_BY_URL = SOURCE_SUMMARY_SELECT + "WHERE s.url_key = ? AND s.url = ?";
+
+    // Post rows joined with their vote aggregates; idx_posts_source_created serves the filter and the order.
+    private static final String POST_WITH_STATS_SELECT =
+            "SELECT p.id, p.title, p.comment, p.user_id, p.created_at, " +
+            "ps.rating_sum, ps.vote_count, ps.agree_count, ps.disagree_count " +
+            "FROM posts p LEFT JOIN post_stats ps ON ps.post_id = p.id ";
+
+    // Parameters: source id, limit.
+    static final String SOURCE_POSTS_PAGE = POST_WITH_STATS_SELECT +
+            "WHERE p.source_id = ? ORDER BY p.created_at DESC, p.id DESC LIMIT ?";
+
+    // Parameters: source id, cursor created_at, cursor id, limit. The row-value comparison lets the
+    // index seek straight to the cursor instead of filtering every newer post.
+    static final String SOURCE_POSTS_PAGE_AFTER = POST_WITH_STATS_SELECT +
+            "WHERE p.source_id = ? AND (p.created_at, p.id) < (?, ?) " +
+            "ORDER BY p.created_at DESC, p.id DESC LIMIT ?";
+
+    static final String INSERT_POST =
+            "INSERT INTO posts (id, source_id, user_id, title, comment, created_at) VALUES (?, ?, ?, ?, ?, ?)";
+
+    static final String INSERT_VOTE =
+            "INSERT INTO votes (id, post_id, user_id, agree, rating, created_at) VALUES (?, ?, ?, ?, ?, ?)";
+
+    private static final String USER_POST_SELECT =
+            "SELECT p.id, p.source_id, p.title, p.comment, p.created_at, " +
+            "s.url, s.title AS source_title, " +
+            "ps.rating_sum, ps.vote_count, ps.agree_count, ps.disagree_count " +
+            "FROM posts p " +
+            "LEFT JOIN sources s ON s.id = p.source_id " +
+            "LEFT JOIN post_stats ps ON ps.post_id = p.id ";
+
+    // Parameters: user id, limit, offset. Kept for clients that still page with offset.
+    static final String USER_POSTS_PAGE = USER_POST_SELECT +
+            "WHERE p.user_id = ? " +
+            "ORDER BY p.created_at DESC, p.id DESC " +
+            "LIMIT ? OFFSET ?";
+
+    // Parameters: user id, cursor created_at, cursor id, limit.
+    static final String USER_POSTS_PAGE_AFTER = USER_POST_SELECT +
+            "WHERE p.user_id = ? AND (p.created_at, p.id) < (?, ?) " +
+            "ORDER BY p.created_at DESC, p.id DESC " +
+            "LIMIT ?";
+
+    // Both counts are answered from the covering user_id indexes.
+    static final String USER_POST_COUNT = "SELECT COUNT(*) AS count FROM posts WHERE user_id = ?";
+
+    static final String USER_VOTE_COUNT = "SELECT COUNT(*) AS count FROM votes WHERE user_id = ?";
+
+    // SQL text to the name it is reported under in /metrics; built after every constant above is set.
+    private static final Map<String, String> LABELS = labels();
+
+    private Queries() {
+    }
+
+    /**
+     * Stable, low-cardinality name for a statement: the constant's name for
+     * SQL defined here, the builder's name for generated SQL, and "other" for
+     * anything else.
+     */
+    static String label(String sql) {
+        String label = LABELS.get(sql);
+        if (label != null) {
+            return label;
+        }
+        return sql.startsWith(SOURCE_SUMMARY_SELECT + "WHERE") ? "sourceSummariesIn" : "other";
+    }
+
+    private static Map<String, String> labels() {
+        Map<String, String> labels = new HashMap<>();
+        for (Field field : Queries.class.getDeclaredFields()) {
+            int modifiers = field.getModifiers();
+            if (Modifier.isStatic(modifiers) && !Modifier.isPrivate(modifiers) && field.getType() == String.class) {
+                try {
+                    labels.put((String) field.get(null), field.getName());
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        labels.put(SearchIndex.postSearchSql(false), "postSearch");
+        labels.put(SearchIndex.postSearchSql(true), "postSearchAfter");
+        labels.put(SearchIndex.sourceSearchSql(false), "sourceSearch");
+        labels.put(SearchIndex.sourceSearchSql(true), "sourceSearchAfter");
+        return labels;
+    }
+
+    // Summaries for count sources, keyed by url_key (byUrl) or id; count may be zero.
+    static String sourceSummariesIn(boolean byUrl, int count) {
+        return SOURCE_SUMMARY_SELECT + (byUrl ? "WHERE s.url_key IN (" : "WHERE s.id IN (") +
+                String.join(",", Collections.nCopies(count, "?")) + ")";
+    }
+}
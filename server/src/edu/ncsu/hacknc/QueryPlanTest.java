@@ -0,0 +1,191 @@
+package edu.ncsu.hacknc;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/*
+ * Query-plan regression check. Builds and seeds a scratch database with
+ * Database.init(), runs ANALYZE so the planner sees realistic row counts, and
+ * then runs EXPLAIN QUERY PLAN over every handler statement in Queries plus the
+ * search SQL. A statement fails if any step scans a table (including a full
+ * pass over an index) or sorts through a temp B-tree, so a dropped index or a
+ * reworded ORDER BY shows up here instead of as a slow endpoint. Exits 1 on
+ * failure.
+ *
+ * Ranked search sorts by bm25, which no index can provide; those statements
+ * are listed in SORT_ALLOWED.
+ */
+public class QueryPlanTest {
+
+	private static final int USERS = 20;
+	private static final int SOURCES = 50;
+	private static final int POSTS = 2000;
+	private static final int VOTES_PER_POST = 3;
+
+	private static final Set<String> SORT_ALLOWED = Set.of(
+			"search.posts", "search.posts.after", "search.sources", "search.sources.after");
+
+	public static void main(String[] args) throws Exception {
+		Path file = Files.createTempFile("crowdtruth-plan", ".db");
+		System.setProperty("crowdtruth.db.url", "jdbc:sqlite:" + file);
+		int failures = 0;
+		try {
+			Database.init();
+			seed();
+			try (Connection conn = Database.getConnection()) {
+				for (Map.Entry<String, String> entry : statements().entrySet()) {
+					List<String> plan = explain(conn, entry.getValue());
+					List<String> problems = problems(entry.getKey(), plan);
+					System.out.printf("%-4s %s%n", problems.isEmpty() ? "ok" : "FAIL", entry.getKey());
+					for (String step : plan) {
+						System.out.println("       " + step);
+					}
+					for (String problem : problems) {
+						System.out.println("     ! " + problem);
+					}
+					if (!problems.isEmpty()) {
+						failures++;
+					}
+				}
+			}
+		} finally {
+			Database.shutdown();
+			Files.deleteIfExists(file);
+			Files.deleteIfExists(Path.of(file + "-wal"));
+			Files.deleteIfExists(Path.of(file + "-shm"));
+		}
+
+		if (failures > 0) {
+			System.out.println(failures + " statement(s) with a full scan or sort");
+			System.exit(1);
+		}
+		System.out.println("Query plan checks passed");
+	}
+
+	// A few users, sources and posts with several votes each, written through the handlers' own inserts.
+	private static void seed() throws Exception {
+		Random random = new Random(17);
+		try (Connection conn = Database.getWriteConnection()) {
+			conn.setAutoCommit(false);
+			try (PreparedStatement users = conn.prepareStatement(Queries.INSERT_USER);
+					PreparedStatement sources = conn.prepareStatement(Queries.UPSERT_SOURCE);
+					PreparedStatement posts = conn.prepareStatement(Queries.INSERT_POST);
+					PreparedStatement votes = conn.prepareStatement(Queries.INSERT_VOTE)) {
+				for (int u = 0; u < USERS; u++) {
+					users.setString(1, "plan-user-" + u);
+					users.setString(2, "plan" + u + "@example.com");
+					users.setString(3, "");
+					users.setString(4, "");
+					users.executeUpdate();
+				}
+				long[] sourceIds = new long[SOURCES];
+				for (int s = 0; s < SOURCES; s++) {
+					String url = "https://example.com/plan/" + s;
+					sourceIds[s] = Ids.next();
+					sources.setLong(1, sourceIds[s]);
+					sources.setString(2, url);
+					sources.setLong(3, SecurityUtil.urlKey(url));
+					sources.setString(4, "Plan source " + s);
+					sources.executeQuery().close();
+				}
+				for (int p = 0; p < POSTS; p++) {
+					long postId = Ids.next();
+					posts.setLong(1, postId);
+					posts.setLong(2, sourceIds[random.nextInt(SOURCES)]);
+					posts.setString(3, "plan-user-" + random.nextInt(USERS));
+					posts.setString(4, "Post " + p);
+					posts.setString(5, "Comment " + p);
+					posts.setLong(6, Ids.timestampOf(postId));
+					posts.executeUpdate();
+					for (int v = 0; v < VOTES_PER_POST; v++) {
+						long voteId = Ids.next();
+						votes.setLong(1, voteId);
+						votes.setLong(2, postId);
+						votes.setString(3, "plan-user-" + ((p + v) % USERS));
+						votes.setInt(4, random.nextBoolean() ? 1 : 0);
+						votes.setInt(5, 1 + random.nextInt(5));
+						votes.setLong(6, Ids.timestampOf(voteId));
+						votes.executeUpdate();
+					}
+				}
+			}
+			conn.commit();
+			conn.setAutoCommit(true);
+			Aggregates.rebuild(conn);
+			SearchIndex.rebuild(conn);
+			try (Statement stmt = conn.createStatement()) {
+				stmt.execute("ANALYZE");
+			}
+		}
+	}
+
+	private static Map<String, String> statements() throws Exception {
+		Map<String, String> statements = new LinkedHashMap<>();
+		for (Field field : Queries.class.getDeclaredFields()) {
+			int modifiers = field.getModifiers();
+			if (Modifier.isStatic(modifiers) && !Modifier.isPrivate(modifiers) && field.getType() == String.class) {
+				statements.put(field.getName(), (String) field.get(null));
+			}
+		}
+		statements.put("sourceSummariesIn.url", Queries.sourceSummariesIn(true, 3));
+		statements.put("sourceSummariesIn.id", Queries.sourceSummariesIn(false, 3));
+		statements.put("search.posts", SearchIndex.postSearchSql(false));
+		statements.put("search.posts.after", SearchIndex.postSearchSql(true));
+		statements.put("search.sources", SearchIndex.sourceSearchSql(false));
+		statements.put("search.sources.after", SearchIndex.sourceSearchSql(true));
+		return statements;
+	}
+
+	// Plan steps in order; parameters are bound to NULL, which does not change the chosen plan.
+	private static List<String> explain(Connection conn, String sql) throws Exception {
+		List<String> plan = new ArrayList<>();
+		try (PreparedStatement stmt = conn.prepareStatement("EXPLAIN QUERY PLAN " + sql)) {
+			int params = stmt.getParameterMetaData().getParameterCount();
+			for (int i = 1; i <= params; i++) {
+				stmt.setNull(i, Types.NULL);
+			}
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					plan.add(rs.getString("detail"));
+				}
+			}
+		}
+		return plan;
+	}
+
+	private static List<String> problems(String name, List<String> plan) {
+		List<String> problems = new ArrayList<>();
+		// Scanning a materialized CTE or subquery is reading rows already produced, not a table scan.
+		Set<String> derived = new HashSet<>();
+		for (String step : plan) {
+			if (step.startsWith("MATERIALIZE ") || step.startsWith("CO-ROUTINE ")) {
+				derived.add(step.substring(step.indexOf(' ') + 1).trim());
+			}
+		}
+		for (String step : plan) {
+			if (step.startsWith("SCAN ")) {
+				String table = step.substring(5).split(" ", 2)[0];
+				if (!step.contains("VIRTUAL TABLE") && !derived.contains(table) && !table.equals("CONSTANT")) {
+					problems.add("full scan: " + step);
+				}
+			} else if (step.startsWith("USE TEMP B-TREE") && !SORT_ALLOWED.contains(name)) {
+				problems.add("sort without an index: " + step);
+			}
+		}
+		return problems;
+	}
+}
@@ -0,0 +1,136 @@
+package edu.ncsu.hacknc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * FTS5 full-text indexes over posts (title, comment) and sources (url, title).
+ * Both are external-content tables keyed by the base table's rowid, so the
+ * text is stored once; the index* methods must run on the writer connection
+ * in the same transaction as the row they index.
+ *
+ * Matched terms in highlights and snippets are wrapped in {@link #MARK_OPEN}
+ * and {@link #MARK_CLOSE}.
+ */
+public final class SearchIndex {
+
+    public static final String MARK_OPEN = "**";
+    public static final String MARK_CLOSE = "**";
+
+    private static final int MAX_QUERY_TERMS = 8;
+
+    // Title matches outrank comment/url matches.
+    private static final String POST_RANK = "bm25(posts_fts, 10.0, 1.0)";
+    private static final String SOURCE_RANK = "bm25(sources_fts, 1.0, 5.0)";
+
+    private SearchIndex() {
+    }
+
+    public static void createTables(Statement stmt) throws SQLException {
+        stmt.execute("CREATE VIRTUAL TABLE IF NOT EXISTS posts_fts USING fts5(" +
+                "title, comment, content='posts', content_rowid='rowid', " +
+                "tokenize='unicode61 remove_diacritics 2')");
+        stmt.execute("CREATE VIRTUAL TABLE IF NOT EXISTS sources_fts USING fts5(" +
+                "url, title, content='sources', content_rowid='rowid', " +
+                "tokenize='unicode61 remove_diacritics 2')");
+    }
+
+    public static void indexPost(Connection conn, long postId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO posts_fts (rowid, title, comment) " +
+                "SELECT rowid, title, comment FROM posts WHERE id = ?")) {
+            stmt.setLong(1, postId);
+            stmt.executeUpdate();
+        }
+    }
+
+    public static void indexSource(Connection conn, long sourceId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO sources_fts (rowid, url, title) " +
+                "SELECT rowid, url, title FROM sources WHERE id = ?")) {
+            stmt.setLong(1, sourceId);
+            stmt.executeUpdate();
+        }
+    }
+
+    // Call after changing a source's title; FTS5 needs the previous values to remove the old entry.
+    public static void reindexSource(Connection conn, long sourceId, String previousTitle) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO sources_fts (sources_fts, rowid, url, title) " +
+                "SELECT 'delete', rowid, url, ? FROM sources WHERE id = ?")) {
+            stmt.setString(1, previousTitle);
+            stmt.setLong(2, sourceId);
+            stmt.executeUpdate();
+        }
+        indexSource(conn, sourceId);
+    }
+
+    public static void rebuild(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("INSERT INTO posts_fts (posts_fts) VALUES ('rebuild')");
+            stmt.executeUpdate("INSERT INTO sources_fts (sources_fts) VALUES ('rebuild')");
+        }
+    }
+
+    /**
+     * Turns free text into an FTS5 query: every word becomes a quoted prefix
+     * term and all of them must match. Returns null if there are no words.
+     */
+    public static String toMatchQuery(String text) {
+        List<String> terms = new ArrayList<>();
+        int i = 0;
+        while (i < text.length() && terms.size() < MAX_QUERY_TERMS) {
+            while (i < text.length() && !Character.isLetterOrDigit(text.codePointAt(i))) {
+                i += Character.charCount(text.codePointAt(i));
+            }
+            int start = i;
+            while (i < text.length() && Character.isLetterOrDigit(text.codePointAt(i))) {
+                i += Character.charCount(text.codePointAt(i));
+            }
+            if (i > start) {
+                terms.add("\"" + text.substring(start, i) + "\"*");
+            }
+        }
+        return terms.isEmpty() ? null : String.join(" ", terms);
+    }
+
+    /**
+     * Ranked post search. Parameters: match query, [score, score, rowid when
+     * paging], limit, match query again (for the snippet join).
+     */
+    public static String postSearchSql(boolean afterCursor) {
+        return "WITH top AS (" +
+                "SELECT rowid, " + POST_RANK + " AS score FROM posts_fts WHERE posts_fts MATCH ? " +
+                (afterCursor ? "AND (" + POST_RANK + " > ? OR (" + POST_RANK + " = ? AND rowid > ?)) " : "") +
+                "ORDER BY score, rowid LIMIT ?) " +
+                "SELECT p.id, p.title, p.comment, p.user_id, p.created_at, s.url, s.title AS source_title, " +
+                "top.score, top.rowid AS fts_rowid, " +
+                "highlight(posts_fts, 0, '" + MARK_OPEN + "', '" + MARK_CLOSE + "') AS title_highlight, " +
+                "snippet(posts_fts, 1, '" + MARK_OPEN + "', '" + MARK_CLOSE + "', '...', 16) AS snippet " +
+                "FROM top " +
+                "JOIN posts_fts ON posts_fts.rowid = top.rowid " +
+                "JOIN posts p ON p.rowid = top.rowid " +
+                "LEFT JOIN sources s ON s.id = p.source_id " +
+                "WHERE posts_fts MATCH ? " +
+                "ORDER BY top.score, top.rowid";
+    }
+
+    // Ranked source search; parameters as for postSearchSql.
+    public static String sourceSearchSql(boolean afterCursor) {
+        return "WITH top AS (" +
+                "SELECT rowid, " + SOURCE_RANK + " AS score FROM sources_fts WHERE sources_fts MATCH ? " +
+                (afterCursor ? "AND (" + SOURCE_RANK + " > ? OR (" + SOURCE_RANK + " = ? AND rowid > ?)) " : "") +
+                "ORDER BY score, rowid LIMIT ?) " +
+                "SELECT s.id, s.url, s.title, top.score, top.rowid AS fts_rowid, " +
+                "highlight(sources_fts, 1, '" + MARK_OPEN + "', '" + MARK_CLOSE + "') AS title_highlight " +
+                "FROM top " +
+                "JOIN sources_fts ON sources_fts.rowid = top.rowid " +
+                "JOIN sources s ON s.rowid = top.rowid " +
+                "WHERE sources_fts MATCH ? " +
+                "ORDER BY top.score, top.rowid";
+    }
+}
@@ -1,7 +1,15 @@
 package edu.ncsu.hacknc;
 
+import java.net.IDN;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 import com.sun.net.httpserver.HttpExchange;
 
@@ -12,6 +20,12 @@ public final class SecurityUtil {
     private static final int MAX_URL_LENGTH = 2048;
     private static final long TOKEN_EXPIRY_MS = 7 * 24 * 60 * 60 * 1000L; // 7 days
 
+    // Query parameters that only identify the referrer or campaign, never the page.
+    private static final Set<String> TRACKING_PARAMS = Set.of(
+            "fbclid", "gclid", "dclid", "gbraid", "wbraid", "msclkid", "yclid", "twclid", "igshid",
+            "mc_cid", "mc_eid", "_ga", "_gl", "_hsenc", "_hsmi", "mkt_tok", "ref_src", "ref_url");
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
     private SecurityUtil() {
     }
 
@@ -73,6 +87,173 @@ public final class SecurityUtil {
         return null;
     }
 
+    /**
+     * Canonical form used as a source's identity: lowercase scheme and host
+     * (IDNs in punycode), default port, userinfo, fragment and tracking
+     * parameters removed, dot segments resolved, no trailing slash, and
+     * percent-escapes normalized. Returns null if the URL is not a valid
+     * HTTP(S) URL.
+     */
+    public static String canonicalizeUrl(String url) {
+        url = url == null ? null : url.trim();
+        if (validateUrl(url) != null) {
+            return null;
+        }
+        URI uri;
+        try {
+            uri = new URI(url);
+        } catch (URISyntaxException e) {
+            return null;
+        }
+        String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+        String authority = uri.getRawAuthority();
+        if (authority == null) {
+            return null;
+        }
+
+        // Parse the authority by hand: URI leaves getHost() null for internationalized hosts.
+        String hostPort = authority.substring(authority.lastIndexOf('@') + 1);
+        String host;
+        String portPart;
+        if (hostPort.startsWith("[")) {
+            int end = hostPort.indexOf(']');
+            if (end < 0) {
+                return null;
+            }
+            host = hostPort.substring(0, end + 1).toLowerCase(Locale.ROOT);
+            portPart = hostPort.substring(end + 1);
+        } else {
+            int colon = hostPort.lastIndexOf(':');
+            host = colon >= 0 ? hostPort.substring(0, colon) : hostPort;
+            portPart = colon >= 0 ? hostPort.substring(colon) : "";
+            if (host.endsWith(".")) {
+                host = host.substring(0, host.length() - 1);
+            }
+            try {
+                host = IDN.toASCII(host, IDN.ALLOW_UNASSIGNED).toLowerCase(Locale.ROOT);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        if (host.isEmpty()) {
+            return null;
+        }
+
+        int port = -1;
+        if (portPart.length() > 1) {
+            try {
+                port = Integer.parseInt(portPart.substring(1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        } else if (!portPart.isEmpty() && !":".equals(portPart)) {
+            return null;
+        }
+        if ((port == 80 && scheme.equals("http")) || (port == 443 && scheme.equals("https"))) {
+            port = -1;
+        }
+
+        StringBuilder sb = new StringBuilder(url.length());
+        sb.append(scheme).append("://").append(host);
+        if (port >= 0) {
+            sb.append(':').append(port);
+        }
+        sb.append(normalizePath(uri.getRawPath()));
+        String query = stripTrackingParams(uri.getRawQuery());
+        if (query != null) {
+            sb.append('?').append(query);
+        }
+        return sb.toString();
+    }
+
+    // Compact 64-bit index key for a canonical URL (first 8 bytes of its SHA-256).
+    public static long urlKey(String canonicalUrl) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(canonicalUrl.getBytes(StandardCharsets.UTF_8));
+            long key = 0;
+            for (int i = 0; i < 8; i++) {
+                key = (key << 8) | (digest[i] & 0xFF);
+            }
+            return key;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+    }
+
+    private static String normalizePath(String rawPath) {
+        if (rawPath == null || rawPath.isEmpty()) {
+            return "/";
+        }
+        List<String> segments = new ArrayList<>();
+        for (String segment : rawPath.split("/", -1)) {
+            if (segment.isEmpty() || segment.equals(".")) {
+                continue;
+            }
+            if (segment.equals("..")) {
+                if (!segments.isEmpty()) {
+                    segments.remove(segments.size() - 1);
+                }
+                continue;
+            }
+            segments.add(normalizeEscapes(segment));
+        }
+        return "/" + String.join("/", segments);
+    }
+
+    private static String stripTrackingParams(String rawQuery) {
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return null;
+        }
+        List<String> kept = new ArrayList<>();
+        for (String param : rawQuery.split("&")) {
+            if (param.isEmpty()) {
+                continue;
+            }
+            int eq = param.indexOf('=');
+            String name = (eq >= 0 ? param.substring(0, eq) : param).toLowerCase(Locale.ROOT);
+            if (name.startsWith("utm_") || TRACKING_PARAMS.contains(name)) {
+                continue;
+            }
+            kept.add(normalizeEscapes(param));
+        }
+        return kept.isEmpty() ? null : String.join("&", kept);
+    }
+
+    // Uppercases percent-escapes, decodes escaped unreserved characters and escapes raw non-ASCII.
+    private static String normalizeEscapes(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '%' && i + 2 < s.length() && isHex(s.charAt(i + 1)) && isHex(s.charAt(i + 2))) {
+                int value = Character.digit(s.charAt(i + 1), 16) * 16 + Character.digit(s.charAt(i + 2), 16);
+                if (isUnreserved(value)) {
+                    sb.append((char) value);
+                } else {
+                    sb.append('%').append(HEX[value >> 4]).append(HEX[value & 0xF]);
+                }
+                i += 2;
+            } else if (c < 0x80) {
+                sb.append(c);
+            } else {
+                int end = Character.isHighSurrogate(c) && i + 1 < s.length() ? i + 2 : i + 1;
+                for (byte b : s.substring(i, end).getBytes(StandardCharsets.UTF_8)) {
+                    sb.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+                }
+                i = end - 1;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isHex(char c) {
+        return Character.digit(c, 16) >= 0 && c < 0x80;
+    }
+
+    private static boolean isUnreserved(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '.' || c == '_' || c == '~';
+    }
+
     public static boolean isTokenExpired(long createdAt) {
         return System.currentTimeMillis() - createdAt > TOKEN_EXPIRY_MS;
     }
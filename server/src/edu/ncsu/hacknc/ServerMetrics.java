@@ -0,0 +1,280 @@
+package edu.ncsu.hacknc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpPrincipal;
+
+/**
+ * Request and SQL instrumentation behind GET /metrics.
+ *
+ * Every handler registered in Main is wrapped by {@link #instrument}, which
+ * hands it an exchange that records status and latency when the exchange is
+ * closed, not when the handler returns, so work finished later on another
+ * executor (login, registration) is measured end to end. Exceptions that
+ * escape a handler are logged and answered with a 500 if nothing was sent.
+ *
+ * Handler SQL is timed where it runs, through {@link #executeQuery} and
+ * {@link #executeUpdate}, keyed by {@link Queries#label}. For queries that is
+ * the time to the first row, which is where SQLite does the work of an
+ * indexed lookup. Statements are otherwise used directly, so binding
+ * parameters and reading rows cost nothing extra.
+ */
+public final class ServerMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ServerMetrics.class);
+
+    private static final Set<String> METHODS = Set.of("GET", "POST", "PUT", "DELETE", "HEAD", "OPTIONS", "PATCH");
+
+    private static final ConcurrentHashMap<String, Route> ROUTES = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LatencyHistogram> STATEMENTS = new ConcurrentHashMap<>();
+
+    private ServerMetrics() {
+    }
+
+    public static HttpHandler instrument(String path, HttpHandler handler) {
+        Route route = ROUTES.computeIfAbsent(path, Route::new);
+        return exchange -> {
+            TrackedExchange tracked = new TrackedExchange(exchange, route);
+            try {
+                handler.handle(tracked);
+            } catch (RuntimeException e) {
+                route.exceptions.increment();
+                LOG.error("Unhandled exception in {} {}", exchange.getRequestMethod(), path, e);
+                if (tracked.getResponseCode() == -1) {
+                    HttpUtil.sendJson(tracked, 500, JsonUtil.error("Server error"));
+                } else {
+                    tracked.close();
+                }
+            } catch (IOException e) {
+                // Usually the client went away mid-response.
+                route.exceptions.increment();
+                LOG.debug("I/O error in {} {}", exchange.getRequestMethod(), path, e);
+                tracked.close();
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * Records a long-lived response, such as an event stream, as answered
+     * once its headers are sent, so the rest of its life stays out of the
+     * in-flight gauge and the latency histogram. Closing the exchange later
+     * records nothing more.
+     */
+    public static void streamStarted(HttpExchange exchange) {
+        if (exchange instanceof TrackedExchange) {
+            ((TrackedExchange) exchange).finish();
+        }
+    }
+
+    // sql is the text stmt was prepared from; it only picks the label.
+    static ResultSet executeQuery(PreparedStatement stmt, String sql) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return stmt.executeQuery();
+        } finally {
+            statement(sql).recordNanos(System.nanoTime() - start);
+        }
+    }
+
+    static int executeUpdate(PreparedStatement stmt, String sql) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return stmt.executeUpdate();
+        } finally {
+            statement(sql).recordNanos(System.nanoTime() - start);
+        }
+    }
+
+    private static LatencyHistogram statement(String sql) {
+        return STATEMENTS.computeIfAbsent(Queries.label(sql), k -> new LatencyHistogram());
+    }
+
+    public static void write(PrometheusText out) {
+        Map<String, Route> routes = new TreeMap<>(ROUTES);
+
+        out.family("crowdtruth_http_requests_in_flight", "gauge", "Requests received but not yet answered.");
+        for (Route route : routes.values()) {
+            out.sample("crowdtruth_http_requests_in_flight", route.label, route.inFlight.get());
+        }
+
+        out.family("crowdtruth_http_request_duration_seconds", "histogram",
+                "Time from receiving a request to completing its response.");
+        for (Route route : routes.values()) {
+            for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(route.latency).entrySet()) {
+                out.histogram("crowdtruth_http_request_duration_seconds",
+                        route.label + "," + PrometheusText.label("method", entry.getKey()),
+                        entry.getValue().snapshot());
+            }
+        }
+
+        out.family("crowdtruth_http_responses_total", "counter", "Responses by method and status code.");
+        for (Route route : routes.values()) {
+            for (Map.Entry<String, LongAdder> entry : new TreeMap<>(route.responses).entrySet()) {
+                String[] key = entry.getKey().split(" ", 2);
+                out.sample("crowdtruth_http_responses_total", route.label + ","
+                        + PrometheusText.label("method", key[0]) + "," + PrometheusText.label("code", key[1]),
+                        entry.getValue().sum());
+            }
+        }
+
+        out.family("crowdtruth_http_exceptions_total", "counter", "Exceptions that escaped a handler.");
+        for (Route route : routes.values()) {
+            out.sample("crowdtruth_http_exceptions_total", route.label, route.exceptions.sum());
+        }
+
+        out.family("crowdtruth_sql_duration_seconds", "histogram", "Prepared statement execution time.");
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(STATEMENTS).entrySet()) {
+            out.histogram("crowdtruth_sql_duration_seconds", PrometheusText.label("statement", entry.getKey()),
+                    entry.getValue().snapshot());
+        }
+    }
+
+    private static final class Route {
+        private final String label;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final LongAdder exceptions = new LongAdder();
+        private final ConcurrentHashMap<String, LatencyHistogram> latency = new ConcurrentHashMap<>();
+        // Keyed by "METHOD code".
+        private final ConcurrentHashMap<String, LongAdder> responses = new ConcurrentHashMap<>();
+
+        private Route(String path) {
+            this.label = PrometheusText.label("route", path);
+        }
+
+        private void record(String method, int status, long nanos) {
+            String name = METHODS.contains(method) ? method : "OTHER";
+            latency.computeIfAbsent(name, k -> new LatencyHistogram()).recordNanos(nanos);
+            String code = status < 0 ? "none" : Integer.toString(status);
+            responses.computeIfAbsent(name + " " + code, k -> new LongAdder()).increment();
+        }
+    }
+
+    // Delegating exchange that reports to its route once, on the first close() or finish().
+    private static final class TrackedExchange extends HttpExchange {
+        private final HttpExchange delegate;
+        private final Route route;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        private TrackedExchange(HttpExchange delegate, Route route) {
+            this.delegate = delegate;
+            this.route = route;
+            route.inFlight.incrementAndGet();
+        }
+
+        @Override
+        public void close() {
+            finish();
+            delegate.close();
+        }
+
+        private void finish() {
+            if (done.compareAndSet(false, true)) {
+                route.inFlight.decrementAndGet();
+                route.record(delegate.getRequestMethod(), delegate.getResponseCode(), System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public Headers getRequestHeaders() {
+            return delegate.getRequestHeaders();
+        }
+
+        @Override
+        public Headers getResponseHeaders() {
+            return delegate.getResponseHeaders();
+        }
+
+        @Override
+        public URI getRequestURI() {
+            return delegate.getRequestURI();
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return delegate.getRequestMethod();
+        }
+
+        @Override
+        public HttpContext getHttpContext() {
+            return delegate.getHttpContext();
+        }
+
+        @Override
+        public InputStream getRequestBody() {
+            return delegate.getRequestBody();
+        }
+
+        @Override
+        public OutputStream getResponseBody() {
+            return delegate.getResponseBody();
+        }
+
+        @Override
+        public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+            delegate.sendResponseHeaders(rCode, responseLength);
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return delegate.getRemoteAddress();
+        }
+
+        @Override
+        public int getResponseCode() {
+            return delegate.getResponseCode();
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return delegate.getLocalAddress();
+        }
+
+        @Override
+        public String getProtocol() {
+            return delegate.getProtocol();
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            return delegate.getAttribute(name);
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) {
+            delegate.setAttribute(name, value);
+        }
+
+        @Override
+        public void setStreams(InputStream i, OutputStream o) {
+            delegate.setStreams(i, o);
+        }
+
+        @Override
+        public HttpPrincipal getPrincipal() {
+            return delegate.getPrincipal();
+        }
+    }
+}
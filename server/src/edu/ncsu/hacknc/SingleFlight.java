@@ -0,0 +1,108 @@
+package edu.ncsu.hacknc;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongPredicate;
+
+/**
+ * Coalesces concurrent identical loads. The first caller for a key runs the
+ * loader on its own thread; callers arriving while it runs wait for and
+ * share its result, or its exception, instead of repeating the work. The
+ * key is forgotten as soon as the load finishes, so later callers start a
+ * fresh one: this deduplicates work in flight, it does not cache.
+ *
+ * Each load is tagged with the stamp its caller passed, such as a
+ * {@link SourceCache#stamp()} taken before reading. A caller only joins a
+ * load its predicate accepts the stamp of; otherwise it starts its own, and
+ * callers arriving later join that one instead.
+ *
+ * Waiters give up after the timeout with a {@link TimeoutException}; the
+ * load itself carries on for the caller that started it.
+ */
+public final class SingleFlight<K, V> {
+
+    private final long timeoutMs;
+    private final ConcurrentHashMap<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    public SingleFlight(long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    public V run(K key, long stamp, LongPredicate joinable, Callable<V> loader) throws Exception {
+        Flight<V> mine = new Flight<>(stamp);
+        Flight<V> existing;
+        while ((existing = inFlight.putIfAbsent(key, mine)) != null && !joinable.test(existing.stamp)) {
+            // Too old for this caller: take its place so that later callers join this load.
+            if (inFlight.replace(key, existing, mine)) {
+                existing = null;
+                break;
+            }
+        }
+        if (existing == null) {
+            loads.increment();
+            try {
+                V value = loader.call();
+                mine.result.complete(value);
+                return value;
+            } catch (Exception | Error e) {
+                mine.result.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(key, mine);
+            }
+        }
+
+        shared.increment();
+        try {
+            return existing.result.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    // Loads actually run.
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    // Callers served by another caller's load.
+    public long getShared() {
+        return shared.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    private static final class Flight<V> {
+        private final long stamp;
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+
+        private Flight(long stamp) {
+            this.stamp = stamp;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package edu.ncsu.hacknc;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, TTL-evicting cache of serialized source responses and their ETags,
+ * indexed by source id and by URL. Bodies keep their compressed forms once
+ * made, so a hot source is compressed once rather than per response. Writers call {@link #invalidate(long)}
+ * after a post or vote for the source commits.
+ *
+ * Loads are stamped: a reader takes {@link #stamp()} before querying and the
+ * resulting {@link #put} is dropped if the source was invalidated in between,
+ * so a slow read can never re-insert data older than a committed write.
+ */
+public final class SourceCache {
+
+    private static final int MAX_TRACKED_INVALIDATIONS = 4096;
+
+    private final int maxEntries;
+    private final long ttlMs;
+
+    private final LinkedHashMap<Long, Entry> byId;
+    private final Map<String, Long> idByUrl = new HashMap<>();
+    private final LinkedHashMap<Long, Long> recentInvalidations;
+
+    private long sequence;
+    private long oldestForgottenInvalidation;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder rejectedPuts = new LongAdder();
+
+    public SourceCache(int maxEntries, long ttlMs) {
+        this.maxEntries = maxEntries;
+        this.ttlMs = ttlMs;
+        this.byId = new LinkedHashMap<>(16, 0.75f, true);
+        this.recentInvalidations = new LinkedHashMap<>(16, 0.75f, false);
+    }
+
+    public synchronized Entry getById(long sourceId) {
+        return lookup(sourceId);
+    }
+
+    public Entry getByUrl(String url) {
+        if (url == null) {
+            return null;
+        }
+        synchronized (this) {
+            Long sourceId = idByUrl.get(url);
+            if (sourceId == null) {
+                misses.increment();
+                return null;
+            }
+            return lookup(sourceId);
+        }
+    }
+
+    public synchronized long stamp() {
+        return sequence;
+    }
+
+    /**
+     * Whether a load that took stamp before reading may have missed a write:
+     * the source was invalidated since. With no id, for a source known only by
+     * URL, any invalidation since counts.
+     */
+    public synchronized boolean changedSince(Long sourceId, long stamp) {
+        return sourceId != null ? invalidatedSince(sourceId, stamp) : sequence > stamp;
+    }
+
+    public void put(long sourceId, String url, Compression.Body json, String etag, long stamp) {
+        if (maxEntries <= 0 || json == null) {
+            return;
+        }
+        synchronized (this) {
+            if (invalidatedSince(sourceId, stamp)) {
+                rejectedPuts.increment();
+                return;
+            }
+            Entry previous = byId.remove(sourceId);
+            if (previous != null && previous.url != null && url == null) {
+                url = previous.url;
+            }
+            if (previous != null && previous.url != null && !previous.url.equals(url)) {
+                idByUrl.remove(previous.url);
+            }
+            byId.put(sourceId, new Entry(sourceId, url, json, etag, System.currentTimeMillis() + ttlMs));
+            if (url != null) {
+                idByUrl.put(url, sourceId);
+            }
+            evictOverflow();
+        }
+    }
+
+    public synchronized void invalidate(long sourceId) {
+        sequence++;
+        recentInvalidations.remove(sourceId);
+        recentInvalidations.put(sourceId, sequence);
+        if (recentInvalidations.size() > MAX_TRACKED_INVALIDATIONS) {
+            Iterator<Map.Entry<Long, Long>> it = recentInvalidations.entrySet().iterator();
+            oldestForgottenInvalidation = it.next().getValue();
+            it.remove();
+        }
+        Entry removed = byId.remove(sourceId);
+        if (removed != null) {
+            unlinkUrl(removed);
+            invalidations.increment();
+        }
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(byId.size(), maxEntries, ttlMs, hits.sum(), misses.sum(), evictions.sum(),
+                expirations.sum(), invalidations.sum(), rejectedPuts.sum());
+    }
+
+    private Entry lookup(long sourceId) {
+        Entry entry = byId.get(sourceId);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (entry.expiresAt <= System.currentTimeMillis()) {
+            byId.remove(sourceId);
+            unlinkUrl(entry);
+            expirations.increment();
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry;
+    }
+
+    private boolean invalidatedSince(long sourceId, long stamp) {
+        if (oldestForgottenInvalidation > stamp) {
+            // We no longer know exactly which sources changed after the stamp.
+            return true;
+        }
+        Long invalidatedAt = recentInvalidations.get(sourceId);
+        return invalidatedAt != null && invalidatedAt > stamp;
+    }
+
+    private void evictOverflow() {
+        Iterator<Entry> it = byId.values().iterator();
+        while (byId.size() > maxEntries && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            unlinkUrl(eldest);
+            evictions.increment();
+        }
+    }
+
+    private void unlinkUrl(Entry entry) {
+        if (entry.url == null) {
+            return;
+        }
+        Long mapped = idByUrl.get(entry.url);
+        if (mapped != null && mapped == entry.sourceId) {
+            idByUrl.remove(entry.url);
+        }
+    }
+
+    public static final class Entry {
+        private final long sourceId;
+        private final String url;
+        private final Compression.Body json;
+        private final String etag;
+        private final long expiresAt;
+
+        private Entry(long sourceId, String url, Compression.Body json, String etag, long expiresAt) {
+            this.sourceId = sourceId;
+            this.url = url;
+            this.json = json;
+            this.etag = etag;
+            this.expiresAt = expiresAt;
+        }
+
+        public Compression.Body getJson() {
+            return json;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+    }
+
+    public static final class Stats {
+        private final int size;
+        private final int maxEntries;
+        private final long ttlMs;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long expirations;
+        private final long invalidations;
+        private final long rejectedPuts;
+
+        private Stats(int size, int maxEntries, long ttlMs, long hits, long misses, long evictions,
+                long expirations, long invalidations, long rejectedPuts) {
+            this.size = size;
+            this.maxEntries = maxEntries;
+            this.ttlMs = ttlMs;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.expirations = expirations;
+            this.invalidations = invalidations;
+            this.rejectedPuts = rejectedPuts;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public long getTtlMs() {
+            return ttlMs;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public long getExpirations() {
+            return expirations;
+        }
+
+        public long getInvalidations() {
+            return invalidations;
+        }
+
+        public long getRejectedPuts() {
+            return rejectedPuts;
+        }
+
+        public double getHitRatio() {
+            long total = hits + misses;
+            return total == 0 ? 0.0 : hits / (double) total;
+        }
+    }
+}
@@ -0,0 +1,450 @@
+package edu.ncsu.hacknc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Server-Sent Events fan-out behind GET /sources/{id}/events.
+ *
+ * Writers call {@link #sourceChanged} once a post or vote has committed;
+ * that only marks the source dirty. Every interval a single ticker thread
+ * loads the current reputation of all dirty sources that have subscribers
+ * in one query and queues one frame per subscriber, so a burst of votes
+ * costs one frame per interval rather than one per vote.
+ *
+ * A stream is taken over from the request thread once its headers are
+ * sent, so open streams do not hold HTTP executor threads. Frames are
+ * written by a small writer pool from a bounded queue per connection; a
+ * client that lets its queue fill is disconnected rather than buffered for,
+ * and reconnects to a fresh snapshot. Heartbeat comments find dead
+ * connections between updates.
+ *
+ * Writes block, and the exchange gives no access to its socket, so a write
+ * that has not returned within the write timeout is abandoned instead: the
+ * subscriber is dropped and the pool gets a spare thread for as long as the
+ * stuck one stays blocked, so one client that stops reading cannot stall
+ * the others. Only writer threads touch a stream; the ticker never blocks
+ * on a client.
+ */
+public final class SourceEvents {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SourceEvents.class);
+
+    private static final byte[] HEARTBEAT = ": ping\n\n".getBytes(StandardCharsets.UTF_8);
+    // Loader batches stay well under SQLite's bound parameter limit.
+    private static final int LOAD_BATCH = 500;
+
+    /** Reads the current state of the given sources; sources that no longer exist are left out. */
+    @FunctionalInterface
+    public interface Loader {
+        Map<Long, Snapshot> load(Collection<Long> sourceIds) throws Exception;
+    }
+
+    public static final class Snapshot {
+        private final long version;
+        private final byte[] json;
+
+        public Snapshot(long version, byte[] json) {
+            this.version = version;
+            this.json = json;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+    }
+
+    private final int maxStreams;
+    private final int maxQueuedFrames;
+    private final long intervalMs;
+    private final long heartbeatMs;
+    private final long writeTimeoutNanos;
+    private final int writerThreads;
+    private final Loader loader;
+
+    private final ConcurrentHashMap<Long, Set<Subscriber>> bySource = new ConcurrentHashMap<>();
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger open = new AtomicInteger();
+    // Subscribers whose writer is inside a blocking call, checked against the write timeout.
+    private final Set<Subscriber> writing = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService ticker;
+    private final ThreadPoolExecutor writers;
+
+    private final LongAdder framesSent = new LongAdder();
+    private final LongAdder changesCoalesced = new LongAdder();
+    private final LongAdder slowConsumersDropped = new LongAdder();
+    private final LongAdder writeTimeouts = new LongAdder();
+    private final LongAdder streamsRejected = new LongAdder();
+
+    public SourceEvents(int maxStreams, int maxQueuedFrames, long intervalMs, long heartbeatMs, long writeTimeoutMs,
+            int writerThreads, Loader loader) {
+        this.maxStreams = maxStreams;
+        this.maxQueuedFrames = Math.max(1, maxQueuedFrames);
+        this.intervalMs = intervalMs;
+        this.heartbeatMs = heartbeatMs;
+        this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1L, writeTimeoutMs));
+        this.writerThreads = Math.max(1, writerThreads);
+        this.loader = loader;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "source-events");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger threadIndex = new AtomicInteger();
+        // Sized like a fixed pool; checkWriteTimeouts grows it past writerThreads only while writes are stuck.
+        this.writers = new ThreadPoolExecutor(this.writerThreads, this.writerThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "source-events-writer-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    public void start() {
+        long checkMs = Math.max(50L, TimeUnit.NANOSECONDS.toMillis(writeTimeoutNanos) / 2);
+        ticker.scheduleWithFixedDelay(this::publish, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        ticker.scheduleWithFixedDelay(this::heartbeat, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+        ticker.scheduleWithFixedDelay(this::checkWriteTimeouts, checkMs, checkMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        ticker.shutdownNow();
+        for (Set<Subscriber> subscribers : bySource.values()) {
+            for (Subscriber subscriber : subscribers) {
+                subscriber.drop();
+            }
+        }
+        // Let the writers end the streams they were handed, but do not wait on clients that stopped reading.
+        writers.shutdown();
+        try {
+            writers.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writers.shutdownNow();
+    }
+
+    // Call after the transaction that changed the source has committed.
+    public void sourceChanged(long sourceId) {
+        if (bySource.containsKey(sourceId) && !dirty.add(sourceId)) {
+            changesCoalesced.increment();
+        }
+    }
+
+    /**
+     * Starts an event stream for sourceId on the exchange, sending initial as
+     * its first frame if given. Returns false, having sent nothing, when the
+     * stream cap is reached. On success the exchange belongs to this class.
+     */
+    public boolean subscribe(HttpExchange exchange, long sourceId, Snapshot initial) throws IOException {
+        if (open.incrementAndGet() > maxStreams) {
+            open.decrementAndGet();
+            streamsRejected.increment();
+            return false;
+        }
+        Subscriber subscriber;
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, 0);
+            subscriber = new Subscriber(sourceId, exchange);
+        } catch (IOException | RuntimeException e) {
+            open.decrementAndGet();
+            exchange.close();
+            throw e;
+        }
+        // compute, like the removal in close(), is atomic per key, so a set being emptied cannot swallow this.
+        bySource.compute(sourceId, (k, subscribers) -> {
+            Set<Subscriber> set = subscribers != null ? subscribers : ConcurrentHashMap.newKeySet();
+            set.add(subscriber);
+            return set;
+        });
+        // Clients reconnect after this many ms if the stream drops.
+        subscriber.offer(("retry: " + Math.max(1000L, intervalMs * 2) + "\n\n").getBytes(StandardCharsets.UTF_8));
+        if (initial != null) {
+            subscriber.offer(initial);
+        }
+        return true;
+    }
+
+    public int getOpenStreams() {
+        return open.get();
+    }
+
+    public int getSubscribedSources() {
+        return bySource.size();
+    }
+
+    public long getFramesSent() {
+        return framesSent.sum();
+    }
+
+    public long getChangesCoalesced() {
+        return changesCoalesced.sum();
+    }
+
+    public long getSlowConsumersDropped() {
+        return slowConsumersDropped.sum();
+    }
+
+    public long getStreamsRejected() {
+        return streamsRejected.sum();
+    }
+
+    // Streams dropped because a write to them did not return within the write timeout.
+    public long getWriteTimeouts() {
+        return writeTimeouts.sum();
+    }
+
+    // Writer threads still blocked on a dropped stream, each covered by a spare.
+    public int getStuckWriters() {
+        return writers.getCorePoolSize() - writerThreads;
+    }
+
+    private void publish() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        List<Long> changed = new ArrayList<>();
+        for (Iterator<Long> it = dirty.iterator(); it.hasNext();) {
+            Long sourceId = it.next();
+            it.remove();
+            if (bySource.containsKey(sourceId)) {
+                changed.add(sourceId);
+            }
+        }
+        for (int from = 0; from < changed.size(); from += LOAD_BATCH) {
+            List<Long> batch = changed.subList(from, Math.min(changed.size(), from + LOAD_BATCH));
+            Map<Long, Snapshot> snapshots;
+            try {
+                snapshots = loader.load(batch);
+            } catch (Exception e) {
+                // Try these sources again next interval.
+                LOG.warn("Loading {} source(s) for event streams failed", batch.size(), e);
+                dirty.addAll(batch);
+                continue;
+            }
+            for (Map.Entry<Long, Snapshot> entry : snapshots.entrySet()) {
+                Set<Subscriber> subscribers = bySource.get(entry.getKey());
+                if (subscribers != null) {
+                    for (Subscriber subscriber : subscribers) {
+                        subscriber.offer(entry.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    private void heartbeat() {
+        for (Set<Subscriber> subscribers : bySource.values()) {
+            for (Subscriber subscriber : subscribers) {
+                subscriber.offer(HEARTBEAT);
+            }
+        }
+    }
+
+    private void checkWriteTimeouts() {
+        long now = System.nanoTime();
+        for (Subscriber subscriber : writing) {
+            if (subscriber.stall(now)) {
+                resizeWriters(1);
+                if (subscriber.drop()) {
+                    writeTimeouts.increment();
+                }
+            }
+        }
+    }
+
+    private void resizeWriters(int delta) {
+        synchronized (writers) {
+            int size = writers.getCorePoolSize() + delta;
+            // The maximum may never be below the core size, so widen first and narrow last.
+            if (delta > 0) {
+                writers.setMaximumPoolSize(size);
+                writers.setCorePoolSize(size);
+            } else {
+                writers.setCorePoolSize(size);
+                writers.setMaximumPoolSize(size);
+            }
+        }
+    }
+
+    private static byte[] frame(Snapshot snapshot) {
+        byte[] head = ("id: " + snapshot.version + "\nevent: reputation\ndata: ").getBytes(StandardCharsets.UTF_8);
+        byte[] frame = new byte[head.length + snapshot.json.length + 2];
+        System.arraycopy(head, 0, frame, 0, head.length);
+        System.arraycopy(snapshot.json, 0, frame, head.length, snapshot.json.length);
+        frame[frame.length - 2] = '\n';
+        frame[frame.length - 1] = '\n';
+        return frame;
+    }
+
+    private final class Subscriber {
+        private final long sourceId;
+        private final HttpExchange exchange;
+        private final OutputStream out;
+
+        // Guarded by this. While draining, one writer task owns the stream, and only it writes or ends it.
+        private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+        private boolean draining;
+        private boolean closed;
+        private long lastVersion = -1;
+        // When the owning writer entered its current blocking call, or 0; and whether that call overran.
+        private long blockedSince;
+        private boolean stalled;
+
+        private Subscriber(long sourceId, HttpExchange exchange) {
+            this.sourceId = sourceId;
+            this.exchange = exchange;
+            this.out = exchange.getResponseBody();
+        }
+
+        // Skips snapshots this client has already been sent (e.g. the initial one, then the same version).
+        private void offer(Snapshot snapshot) {
+            synchronized (this) {
+                if (snapshot.version <= lastVersion) {
+                    return;
+                }
+                lastVersion = snapshot.version;
+            }
+            offer(frame(snapshot));
+        }
+
+        private void offer(byte[] frame) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (queue.size() < maxQueuedFrames) {
+                    queue.add(frame);
+                    if (!draining) {
+                        draining = true;
+                        writers.execute(this::drain);
+                    }
+                    return;
+                }
+            }
+            if (drop()) {
+                slowConsumersDropped.increment();
+            }
+        }
+
+        /**
+         * Stops the stream and frees its slot without blocking: the exchange
+         * itself is ended by the writer that owns it, or by a new writer task
+         * if none does. Returns false if it was already dropped.
+         */
+        private boolean drop() {
+            boolean schedule;
+            synchronized (this) {
+                if (closed) {
+                    return false;
+                }
+                closed = true;
+                queue.clear();
+                schedule = !draining;
+                draining = true;
+            }
+            bySource.computeIfPresent(sourceId, (k, subscribers) -> {
+                subscribers.remove(this);
+                return subscribers.isEmpty() ? null : subscribers;
+            });
+            open.decrementAndGet();
+            if (schedule) {
+                try {
+                    writers.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    // Shutting down; the server closes what is left.
+                }
+            }
+            return true;
+        }
+
+        private void drain() {
+            while (true) {
+                List<byte[]> frames;
+                synchronized (this) {
+                    if (closed) {
+                        break;
+                    }
+                    if (queue.isEmpty()) {
+                        draining = false;
+                        return;
+                    }
+                    frames = new ArrayList<>(queue);
+                    queue.clear();
+                }
+                block();
+                try {
+                    for (byte[] frame : frames) {
+                        out.write(frame);
+                    }
+                    out.flush();
+                    framesSent.add(frames.size());
+                } catch (IOException | RuntimeException e) {
+                    // The client went away.
+                    drop();
+                } finally {
+                    unblock();
+                }
+            }
+            block();
+            try {
+                exchange.close();
+            } finally {
+                unblock();
+            }
+        }
+
+        private void block() {
+            synchronized (this) {
+                blockedSince = System.nanoTime();
+            }
+            writing.add(this);
+        }
+
+        private void unblock() {
+            boolean overran;
+            synchronized (this) {
+                blockedSince = 0;
+                overran = stalled;
+                stalled = false;
+            }
+            writing.remove(this);
+            if (overran) {
+                resizeWriters(-1);
+            }
+        }
+
+        // Marks the current blocking call as stuck if it has run past the write timeout; true the first time only.
+        private synchronized boolean stall(long now) {
+            if (blockedSince == 0 || stalled || now - blockedSince < writeTimeoutNanos) {
+                return false;
+            }
+            stalled = true;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package edu.ncsu.hacknc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU map from source URL to id, used by the write path to skip the
+ * upsert entirely for sources it has already seen. Entries must only be added
+ * after the transaction that created or read the source has committed.
+ */
+public final class SourceIdCache {
+
+    private final LinkedHashMap<String, Entry> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public SourceIdCache(int maxEntries) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SourceIdCache.Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public synchronized Entry get(String url) {
+        Entry entry = entries.get(url);
+        if (entry == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return entry;
+    }
+
+    // Like get, but for readers: it is not counted in the write path's hit ratio.
+    public synchronized Entry peek(String url) {
+        return entries.get(url);
+    }
+
+    public synchronized void put(String url, long sourceId, boolean titled) {
+        entries.put(url, new Entry(sourceId, titled));
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public static final class Entry {
+        private final long sourceId;
+        private final boolean titled;
+
+        private Entry(long sourceId, boolean titled) {
+            this.sourceId = sourceId;
+            this.titled = titled;
+        }
+
+        public long getSourceId() {
+            return sourceId;
+        }
+
+        // True once the source has a non-empty title, after which upserts can no longer change it.
+        public boolean isTitled() {
+            return titled;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package edu.ncsu.hacknc;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent cache of auth tokens in front of the tokens table. Valid tokens
+ * are kept until {@link SecurityUtil#isTokenExpired} says otherwise; tokens
+ * that were not found are remembered briefly so repeated guesses do not reach
+ * SQLite.
+ */
+public final class TokenCache {
+
+    private final int maxEntries;
+    private final int maxNegativeEntries;
+    private final long negativeTtlMs;
+
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> unknownTokens = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public TokenCache(int maxEntries, int maxNegativeEntries, long negativeTtlMs) {
+        this.maxEntries = maxEntries;
+        this.maxNegativeEntries = maxNegativeEntries;
+        this.negativeTtlMs = negativeTtlMs;
+    }
+
+    // Returns the cached session, or null when the caller must consult the database.
+    public Session get(String token) {
+        Session session = sessions.get(token);
+        if (session != null) {
+            if (SecurityUtil.isTokenExpired(session.getCreatedAt())) {
+                sessions.remove(token, session);
+                expirations.increment();
+            } else {
+                hits.increment();
+            }
+            return session;
+        }
+        misses.increment();
+        return null;
+    }
+
+    public boolean isKnownInvalid(String token) {
+        Long expiresAt = unknownTokens.get(token);
+        if (expiresAt == null) {
+            return false;
+        }
+        if (expiresAt <= System.currentTimeMillis()) {
+            unknownTokens.remove(token, expiresAt);
+            return false;
+        }
+        negativeHits.increment();
+        return true;
+    }
+
+    public void put(String token, String userId, long createdAt) {
+        if (SecurityUtil.isTokenExpired(createdAt)) {
+            return;
+        }
+        unknownTokens.remove(token);
+        if (sessions.size() >= maxEntries) {
+            purge(sessions.entrySet().iterator(), maxEntries);
+        }
+        sessions.put(token, new Session(userId, createdAt));
+    }
+
+    public void putInvalid(String token) {
+        if (unknownTokens.size() >= maxNegativeEntries) {
+            purge(unknownTokens.entrySet().iterator(), maxNegativeEntries);
+        }
+        unknownTokens.put(token, System.currentTimeMillis() + negativeTtlMs);
+    }
+
+    public void revoke(String token) {
+        sessions.remove(token);
+        unknownTokens.remove(token);
+    }
+
+    public Stats stats() {
+        return new Stats(sessions.size(), unknownTokens.size(), hits.sum(), misses.sum(), negativeHits.sum(),
+                expirations.sum());
+    }
+
+    // Drops expired entries first; if that is not enough, drops arbitrary ones until under the limit.
+    private <V> void purge(Iterator<Map.Entry<String, V>> it, int limit) {
+        long now = System.currentTimeMillis();
+        int removedArbitrary = 0;
+        int target = Math.max(1, limit / 10);
+        while (it.hasNext()) {
+            Map.Entry<String, V> entry = it.next();
+            V value = entry.getValue();
+            boolean expired = value instanceof Session
+                    ? SecurityUtil.isTokenExpired(((Session) value).getCreatedAt())
+                    : (Long) value <= now;
+            if (expired) {
+                it.remove();
+            } else if (removedArbitrary < target) {
+                it.remove();
+                removedArbitrary++;
+            }
+        }
+    }
+
+    public static final class Session {
+        private final String userId;
+        private final long createdAt;
+
+        private Session(String userId, long createdAt) {
+            this.userId = userId;
+            this.createdAt = createdAt;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+    }
+
+    public static final class Stats {
+        private final int size;
+        private final int negativeSize;
+        private final long hits;
+        private final long misses;
+        private final long negativeHits;
+        private final long expirations;
+
+        private Stats(int size, int negativeSize, long hits, long misses, long negativeHits, long expirations) {
+            this.size = size;
+            this.negativeSize = negativeSize;
+            this.hits = hits;
+            this.misses = misses;
+            this.negativeHits = negativeHits;
+            this.expirations = expirations;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public int getNegativeSize() {
+            return negativeSize;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getNegativeHits() {
+            return negativeHits;
+        }
+
+        public long getExpirations() {
+            return expirations;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package edu.ncsu.hacknc;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Group commit for hot insert paths. Callers hand their write to a single
+ * writer thread, which runs queued writes back to back inside one transaction
+ * and commits them together, so a burst of votes pays for one fsync instead
+ * of one each.
+ *
+ * Every write runs under its own savepoint: a write that fails (for example a
+ * UNIQUE conflict) is rolled back alone and only its caller sees the error.
+ * A batch closes at maxBatchSize writes or maxDelayMicros after its first
+ * write, whichever comes first; the writer only lingers for more writes when
+ * the previous batch was not a single write, so an idle server commits
+ * immediately.
+ *
+ * Whatever goes wrong in a batch, Errors included, fails that batch's
+ * callers and leaves the writer running for the next one, and callers stop
+ * waiting after commitTimeoutMs, so a stuck writer cannot pin request
+ * threads.
+ */
+public final class WriteBatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBatcher.class);
+
+    private static final int SQLITE_CONSTRAINT = 19;
+
+    public interface Write<T> {
+        T apply(Connection conn) throws SQLException;
+    }
+
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final long commitTimeoutNanos;
+    private final BlockingQueue<Pending<?>> queue;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder failedWrites = new LongAdder();
+    private final LongAdder rejectedWrites = new LongAdder();
+    private final LongAdder timedOutWrites = new LongAdder();
+    private final AtomicLong largestBatch = new AtomicLong();
+    private final LatencyHistogram commitLatency = new LatencyHistogram();
+
+    public WriteBatcher(int maxBatchSize, long maxDelayMicros, int queueCapacity, long commitTimeoutMs) {
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+        this.commitTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(commitTimeoutMs);
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.writer = new Thread(this::run, "write-batcher");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Runs the write in the next batch and blocks until that batch commits.
+     * onCommit (may be null) runs on the writer thread after the commit and
+     * before the writer connection is released, so it is ordered with
+     * anything else that holds the writer, such as counter reconciliation.
+     * Throws CommitTimeoutException if the batch has not committed within the
+     * commit timeout; the write is withdrawn unless the writer had already
+     * started on it, in which case it may still commit.
+     */
+    public <T> T execute(Write<T> write, Consumer<? super T> onCommit) throws SQLException {
+        Pending<T> pending = new Pending<>(write, onCommit);
+        if (!running || !queue.offer(pending)) {
+            rejectedWrites.increment();
+            throw new QueueFullException();
+        }
+        try {
+            return pending.result.get(commitTimeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            if (pending.result.cancel(false)) {
+                timedOutWrites.increment();
+                throw new CommitTimeoutException();
+            }
+            // Completed just as the wait ran out.
+            return resultOf(pending);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for write to commit", e);
+        } catch (ExecutionException e) {
+            throw failure(e);
+        }
+    }
+
+    private static <T> T resultOf(Pending<T> pending) throws SQLException {
+        try {
+            return pending.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for write to commit", e);
+        } catch (ExecutionException e) {
+            throw failure(e);
+        }
+    }
+
+    private static SQLException failure(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof SQLException) {
+            return (SQLException) cause;
+        }
+        return new SQLException("Write failed", cause);
+    }
+
+    public int getQueued() {
+        return queue.size();
+    }
+
+    public LatencyHistogram getCommitLatency() {
+        return commitLatency;
+    }
+
+    public void writeTo(JsonWriter json) throws IOException {
+        long batchCount = batches.sum();
+        long writeCount = writes.sum();
+        json.beginObject()
+            .field("queued", queue.size())
+            .field("batches", batchCount)
+            .field("writes", writeCount)
+            .field("failedWrites", failedWrites.sum())
+            .field("rejectedWrites", rejectedWrites.sum())
+            .field("timedOutWrites", timedOutWrites.sum())
+            .field("avgBatchSize", batchCount == 0 ? 0.0 : writeCount / (double) batchCount)
+            .field("largestBatch", largestBatch.get())
+            .name("commit");
+        commitLatency.snapshot().writeTo(json);
+        json.endObject();
+    }
+
+    // Stops accepting writes and waits for the queue to drain.
+    public void shutdown() {
+        running = false;
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Pending<?>> batch = new ArrayList<>(maxBatchSize);
+        boolean linger = false;
+        while (true) {
+            try {
+                // Poll rather than take so shutdown() never has to interrupt a commit in progress.
+                Pending<?> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (running) {
+                        continue;
+                    }
+                    return;
+                }
+                batch.add(first);
+                collect(batch, linger);
+            } catch (InterruptedException e) {
+                // Nothing interrupts this thread on purpose; commit what was collected and stop.
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                linger = batch.size() > 1;
+                commit(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void collect(List<Pending<?>> batch, boolean linger) throws InterruptedException {
+        queue.drainTo(batch, maxBatchSize - batch.size());
+        if (!linger || !running) {
+            return;
+        }
+        long deadline = System.nanoTime() + maxDelayNanos;
+        while (batch.size() < maxBatchSize) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            Pending<?> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+            queue.drainTo(batch, maxBatchSize - batch.size());
+        }
+    }
+
+    private void commit(List<Pending<?>> batch) {
+        long start = System.nanoTime();
+        List<Pending<?>> applied = new ArrayList<>(batch.size());
+        try (Connection conn = Database.getWriteConnection()) {
+            conn.setAutoCommit(false);
+            for (Pending<?> pending : batch) {
+                if (pending.result.isCancelled()) {
+                    // Its caller timed out and has already answered.
+                    continue;
+                }
+                Savepoint savepoint = conn.setSavepoint();
+                try {
+                    pending.apply(conn);
+                    conn.releaseSavepoint(savepoint);
+                    applied.add(pending);
+                } catch (SQLException | RuntimeException e) {
+                    conn.rollback(savepoint);
+                    conn.releaseSavepoint(savepoint);
+                    failedWrites.increment();
+                    pending.result.completeExceptionally(e);
+                }
+            }
+            conn.commit();
+            for (Pending<?> pending : applied) {
+                pending.committed();
+            }
+        } catch (Throwable e) {
+            // The batch transaction itself failed; nothing in it was committed. Failing the
+            // callers and carrying on keeps one bad batch, even an Error, from stopping every write.
+            LOG.error("Write batch of {} failed", batch.size(), e);
+            BatchFailedException failure = new BatchFailedException(e);
+            for (Pending<?> pending : batch) {
+                if (!pending.result.isDone()) {
+                    failedWrites.increment();
+                    pending.result.completeExceptionally(failure);
+                }
+            }
+        }
+        batches.increment();
+        writes.add(batch.size());
+        largestBatch.accumulateAndGet(batch.size(), Math::max);
+        commitLatency.recordNanos(System.nanoTime() - start);
+    }
+
+    private static final class Pending<T> {
+        private final Write<T> write;
+        private final Consumer<? super T> onCommit;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private T value;
+
+        private Pending(Write<T> write, Consumer<? super T> onCommit) {
+            this.write = write;
+            this.onCommit = onCommit;
+        }
+
+        private void apply(Connection conn) throws SQLException {
+            value = write.apply(conn);
+        }
+
+        private void committed() {
+            try {
+                if (onCommit != null) {
+                    onCommit.accept(value);
+                }
+            } catch (Throwable e) {
+                // The write is durable; a failed follow-up must not report it as failed.
+                LOG.warn("Follow-up to a committed write failed", e);
+            }
+            result.complete(value);
+        }
+    }
+
+    // Whether a single write was refused by a constraint (UNIQUE, FOREIGN KEY, ...), i.e. the request's fault.
+    public static boolean isConstraintViolation(SQLException e) {
+        if (e instanceof BatchFailedException) {
+            return false;
+        }
+        // SQLite reports SQLITE_CONSTRAINT (19), or one of its extended codes, as the vendor error code.
+        return e instanceof SQLIntegrityConstraintViolationException || (e.getErrorCode() & 0xff) == SQLITE_CONSTRAINT;
+    }
+
+    public static final class QueueFullException extends SQLException {
+        private static final long serialVersionUID = 1L;
+
+        public QueueFullException() {
+            super("Write queue is full");
+        }
+    }
+
+    // The whole batch failed to commit (busy database, I/O error, ...); the write itself may be fine to retry.
+    public static final class BatchFailedException extends SQLException {
+        private static final long serialVersionUID = 1L;
+
+        public BatchFailedException(Throwable cause) {
+            super("Write batch failed", cause);
+        }
+    }
+
+    public static final class CommitTimeoutException extends SQLException {
+        private static final long serialVersionUID = 1L;
+
+        public CommitTimeoutException() {
+            super("Write did not commit in time");
+        }
+    }
+}
@@ -2,4 +2,5 @@ module CrowdTruth {
 	requires java.sql;
 	requires jdk.httpserver;
 	requires java.net.http;
+	requires org.slf4j;
 }